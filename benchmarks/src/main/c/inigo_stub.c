@@ -0,0 +1,177 @@
+// Stub of the Inigo native library for benchmarks. It exports every symbol bound by
+// com.inigolabs.Foreign and does a configurable amount of fake work per call:
+//
+//   INIGO_STUB_REQUEST_NS   busy-wait inside process_service_request_v2 (default 0)
+//   INIGO_STUB_RESPONSE_NS  busy-wait inside process_response (default 0)
+//   INIGO_STUB_BLOCK        when set to 1, every request is blocked with a 429 response
+//   INIGO_STUB_PERSISTING   when set to 1, is_persisting_enabled returns true
+//
+// Inputs are always read in full so marshalling cost is not optimized away.
+
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+typedef struct {
+    int8_t logLevel;
+    char* name;
+    char* service;
+    char* token;
+    char* schema;
+    char* runtime;
+    char* egressUrl;
+    uintptr_t gateway;
+    int8_t disableResponseData;
+    int8_t federation;
+    int8_t federationExample;
+} Config;
+
+static const char STATUS[] = "{\"status\":\"ok\"}";
+static const char ANALYSIS[] = "{\"complexity\":1}";
+static const char BLOCKED[] = "{\"errors\":[{\"message\":\"too many requests\",\"extensions\":{\"code\":\"RATE_LIMITED\"}}]}";
+
+static int64_t request_ns = -1;
+static int64_t response_ns = -1;
+static int block = -1;
+static int persisting = -1;
+static volatile uintptr_t next_handle = 1;
+static volatile uint64_t checksum;
+
+static int64_t env_long(const char* name) {
+    const char* value = getenv(name);
+    return value != NULL ? atoll(value) : 0;
+}
+
+static void init(void) {
+    if (request_ns < 0) {
+        request_ns = env_long("INIGO_STUB_REQUEST_NS");
+        response_ns = env_long("INIGO_STUB_RESPONSE_NS");
+        block = env_long("INIGO_STUB_BLOCK") == 1;
+        persisting = env_long("INIGO_STUB_PERSISTING") == 1;
+    }
+}
+
+static int64_t now_ns(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t) ts.tv_sec * 1000000000 + ts.tv_nsec;
+}
+
+static void spin(int64_t ns) {
+    if (ns <= 0) {
+        return;
+    }
+    int64_t deadline = now_ns() + ns;
+    while (now_ns() < deadline) {
+    }
+}
+
+static void consume(const char* data, uint64_t len) {
+    uint64_t sum = 0;
+    for (uint64_t i = 0; data != NULL && i < len; i++) {
+        sum += (unsigned char) data[i];
+    }
+    checksum += sum;
+}
+
+static uintptr_t new_handle(void) {
+    return __atomic_fetch_add(&next_handle, 1, __ATOMIC_RELAXED);
+}
+
+uintptr_t create(Config* config) {
+    init();
+    if (config != NULL && config->schema != NULL) {
+        consume(config->schema, strlen(config->schema));
+    }
+    return new_handle();
+}
+
+char* check_lasterror(void) {
+    return NULL;
+}
+
+uintptr_t process_service_request_v2(
+    uintptr_t handlePtr,
+    char* subgraph_name, uint64_t subgraph_name_len,
+    char* header, uint64_t header_len,
+    char* input, uint64_t input_len,
+    char** output, uint64_t* output_len,
+    char** status_output, int64_t* status_output_len,
+    char** analysis, uint64_t* analysis_len) {
+    init();
+    consume(subgraph_name, subgraph_name_len);
+    consume(header, header_len);
+    consume(input, input_len);
+    spin(request_ns);
+
+    if (block) {
+        *output = (char*) BLOCKED;
+        *output_len = sizeof(BLOCKED) - 1;
+        *status_output = NULL;
+        *status_output_len = -429;
+        return new_handle();
+    }
+
+    *output = NULL;
+    *output_len = 0;
+    *status_output = (char*) STATUS;
+    *status_output_len = sizeof(STATUS) - 1;
+    *analysis = (char*) ANALYSIS;
+    *analysis_len = sizeof(ANALYSIS) - 1;
+    return new_handle();
+}
+
+uintptr_t process_response(
+    uintptr_t handlePtr, uintptr_t reqHandle,
+    char* input, uint64_t input_len,
+    char** output, uint64_t* output_len) {
+    init();
+    consume(input, input_len);
+    spin(response_ns);
+    *output = NULL;
+    *output_len = 0;
+    return new_handle();
+}
+
+void disposePinner(uintptr_t id) {
+}
+
+void disposeHandle(uintptr_t id) {
+}
+
+void shutdown(void) {
+}
+
+void flush(void) {
+}
+
+char* get_version(void) {
+    return "stub";
+}
+
+void test_runtime(void) {
+}
+
+_Bool update_schema(uintptr_t handlePtr, char* schema, uint64_t schema_len) {
+    consume(schema, schema_len);
+    return 1;
+}
+
+uintptr_t copy_querydata(uintptr_t handlePtr) {
+    return 0;
+}
+
+uintptr_t gateway_info(uintptr_t handlePtr, char** output, uint64_t* output_len) {
+    *output = NULL;
+    *output_len = 0;
+    return new_handle();
+}
+
+_Bool is_persisting_enabled(uintptr_t handlePtr) {
+    init();
+    return persisting;
+}
+
+void cnoop(void) {
+}
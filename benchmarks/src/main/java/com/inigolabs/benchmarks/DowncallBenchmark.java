@@ -0,0 +1,53 @@
+package com.inigolabs.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inigolabs.Foreign;
+
+/**
+ * Fixed cost of crossing into the native library, with as little marshalling as possible.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class DowncallBenchmark {
+    private long instance;
+    private byte[] input;
+
+    @Setup
+    public void setup() {
+        instance = Fixtures.createInstance();
+        input = "{ books { id } }".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void noop() {
+        Foreign.NoOp();
+    }
+
+    @Benchmark
+    public long processRequest() {
+        return Foreign.ProcessRequest(instance, null, (byte[]) null, input).Handle();
+    }
+
+    @Benchmark
+    public String processRequestAndResponse() {
+        var request = Foreign.ProcessRequest(instance, null, (byte[]) null, input);
+        return Foreign.ProcessResponse(instance, request.Handle(), (byte[]) null);
+    }
+}
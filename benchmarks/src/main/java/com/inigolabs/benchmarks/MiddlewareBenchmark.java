@@ -0,0 +1,63 @@
+package com.inigolabs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.graphql.server.WebGraphQlInterceptor;
+import org.springframework.graphql.server.WebGraphQlRequest;
+import org.springframework.graphql.server.WebGraphQlResponse;
+
+import com.inigolabs.Inigo;
+import com.inigolabs.Spring.InigoMiddleware;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * InigoMiddleware.intercept end to end against a chain that returns a prebuilt response.
+ * The baseline runs the same chain without the interceptor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class MiddlewareBenchmark {
+    @Param({ "10", "40" })
+    public int headerCount;
+
+    @Param({ "10", "5000" })
+    public int items;
+
+    private InigoMiddleware middleware;
+    private WebGraphQlRequest request;
+    private WebGraphQlInterceptor.Chain chain;
+
+    @Setup
+    public void setup() {
+        middleware = new InigoMiddleware(new Inigo.Config("benchmark-token", Fixtures.SCHEMA));
+        request = Fixtures.request(Fixtures.headers(headerCount), Fixtures.query(1024));
+        var response = Fixtures.response(request, Fixtures.response(items));
+        chain = r -> Mono.just(response);
+    }
+
+    @Benchmark
+    public WebGraphQlResponse baseline() {
+        return chain.next(request).block();
+    }
+
+    @Benchmark
+    public WebGraphQlResponse intercept() {
+        return middleware.intercept(request, chain).block();
+    }
+}
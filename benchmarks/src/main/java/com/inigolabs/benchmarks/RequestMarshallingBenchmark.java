@@ -0,0 +1,89 @@
+package com.inigolabs.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+
+import com.inigolabs.Foreign;
+import com.inigolabs.HeaderEncoder;
+import com.inigolabs.NativePayload;
+import com.inigolabs.RequestEncoder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Cost of getting headers and the request into process_service_request_v2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class RequestMarshallingBenchmark {
+    @Param({ "2", "10", "40" })
+    public int headerCount;
+
+    @Param({ "1024", "40960" })
+    public int querySize;
+
+    private long instance;
+    private HttpHeaders headers;
+    private byte[] query;
+    private HeaderEncoder headerEncoder;
+    private String document;
+    private Map<String, Object> variables;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setup() {
+        instance = Fixtures.createInstance();
+        headers = Fixtures.headers(headerCount);
+        document = Fixtures.query(querySize);
+        query = document.getBytes(StandardCharsets.UTF_8);
+        headerEncoder = new HeaderEncoder(null, null, 1024);
+        variables = Map.of("first", 10, "filter", Map.of("name", "Hitchhiker", "tags", List.of("sci-fi", "comedy")));
+        objectMapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public long jacksonHeaders() {
+        return Foreign.ProcessRequest(instance, null, (Object) headers, query).Handle();
+    }
+
+    @Benchmark
+    public long encodedHeaders() {
+        return Foreign.ProcessRequest(instance, null, headerEncoder.Encode(headers), NativePayload.Of(query)).Handle();
+    }
+
+    @Benchmark
+    public long jacksonEnvelope() throws Exception {
+        var envelope = new LinkedHashMap<String, Object>();
+        envelope.put("query", document);
+        envelope.put("operationName", "Books");
+        envelope.put("variables", variables);
+        var input = objectMapper.writeValueAsBytes(envelope);
+        return Foreign.ProcessRequest(instance, null, headerEncoder.Encode(headers), NativePayload.Of(input)).Handle();
+    }
+
+    @Benchmark
+    public long encodedEnvelope() {
+        var input = RequestEncoder.Encode(query, "Books", variables, null);
+        return Foreign.ProcessRequest(instance, null, headerEncoder.Encode(headers), input).Handle();
+    }
+}
@@ -0,0 +1,59 @@
+package com.inigolabs.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inigolabs.Foreign;
+import com.inigolabs.ResponseSerializer;
+
+import graphql.ExecutionResult;
+
+/**
+ * Cost of getting an execution result into process_response, by response size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class ResponseMarshallingBenchmark {
+    // About 1 KB, 50 KB and 500 KB of JSON
+    @Param({ "10", "500", "5000" })
+    public int items;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private long instance;
+    private ExecutionResult result;
+
+    @Setup
+    public void setup() {
+        instance = Fixtures.createInstance();
+        result = Fixtures.response(items);
+    }
+
+    @Benchmark
+    public String jacksonMap() throws IOException {
+        return Foreign.ProcessResponse(instance, 0, objectMapper.writeValueAsBytes(result.toSpecification()));
+    }
+
+    @Benchmark
+    public String streaming() throws IOException {
+        try (var buffer = ResponseSerializer.Serialize(result)) {
+            return Foreign.ProcessResponse(instance, 0, buffer);
+        }
+    }
+}
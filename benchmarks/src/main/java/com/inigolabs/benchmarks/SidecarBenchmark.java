@@ -0,0 +1,110 @@
+package com.inigolabs.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inigolabs.Inigo;
+import com.inigolabs.InigoEngine;
+import com.inigolabs.Sidecar.InigoSidecar;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Requests per second through InigoSidecar to a local upstream that returns a prebuilt response.
+ * The baseline sends the same requests to the upstream directly.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(value = 1, jvmArgsAppend = { "--enable-native-access=ALL-UNNAMED", "-Dsun.net.httpserver.nodelay=true" })
+@State(Scope.Benchmark)
+public class SidecarBenchmark {
+    @Param({ "10", "500" })
+    public int items;
+
+    private ExecutorService executor;
+    private HttpServer upstream;
+    private InigoSidecar sidecar;
+    private HttpClient client;
+    private HttpRequest direct;
+    private HttpRequest proxied;
+
+    @Setup
+    public void setup() throws IOException {
+        var response = new ObjectMapper().writeValueAsBytes(Fixtures.response(items).toSpecification());
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        upstream.createContext("/", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+            }
+        });
+        upstream.setExecutor(executor);
+        upstream.start();
+
+        var config = new InigoSidecar.Config();
+        config.Port = 0;
+        config.Upstream = "http://localhost:" + upstream.getAddress().getPort();
+        config.ShutdownTimeoutMillis = 0;
+        sidecar = new InigoSidecar(config, new InigoEngine(new Inigo.Config("benchmark-token", Fixtures.SCHEMA)));
+        sidecar.Start();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).build();
+        var body = new ObjectMapper().writeValueAsString(java.util.Map.of("query", Fixtures.query(1024), "operationName", "Books"));
+        direct = request(upstream.getAddress().getPort(), body);
+        proxied = request(sidecar.Port(), body);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sidecar.close();
+        upstream.stop(0);
+        client.close();
+        executor.close();
+    }
+
+    @Benchmark
+    public int baseline() throws Exception {
+        return client.send(direct, HttpResponse.BodyHandlers.ofByteArray()).body().length;
+    }
+
+    @Benchmark
+    public int sidecar() throws Exception {
+        return client.send(proxied, HttpResponse.BodyHandlers.ofByteArray()).body().length;
+    }
+
+    private static HttpRequest request(int port, String body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/graphql"))
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer benchmark")
+            .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+            .build();
+    }
+}
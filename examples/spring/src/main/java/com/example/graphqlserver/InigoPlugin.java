@@ -1,15 +1,18 @@
 package com.example.graphqlserver;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.graphql.server.WebGraphQlInterceptor;
 
 import com.inigolabs.Spring.InigoMiddleware;
 
+// Start with --inigo.enabled=false to serve without the interceptor, e.g. as a load test baseline
 @Configuration
+@ConditionalOnProperty(name = "inigo.enabled", matchIfMissing = true)
 public class InigoPlugin {
     @Bean
     public WebGraphQlInterceptor Main() {
@@ -17,7 +20,7 @@ public class InigoPlugin {
         String schema = "";
         
         try { token = System.getenv("INIGO_SERVICE_TOKEN"); } catch (Exception e) { }
-        try { schema = new String(Files.readAllBytes(Paths.get("src/main/resources/graphql/schema.graphqls"))); } catch (Exception e) { }
+        try { schema = new ClassPathResource("graphql/schema.graphqls").getContentAsString(StandardCharsets.UTF_8); } catch (Exception e) { }
 
         if (token == null || token.isEmpty()) {
             System.out.println("ERROR: INIGO_SERVICE_TOKEN environment variable is not set.");
@@ -29,6 +32,8 @@ public class InigoPlugin {
             System.exit(1);
         }
 
-        return new InigoMiddleware(token, schema, true);
+        // A library given through INIGO_LIBRARY_PATH, e.g. a local build or a stub, is used as is
+        String libraryPath = System.getenv("INIGO_LIBRARY_PATH");
+        return new InigoMiddleware(token, schema, libraryPath == null || libraryPath.isEmpty());
     }
 }
@@ -0,0 +1,117 @@
+package com.inigolabs.loadtest;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: values below 128 ns are exact, larger
+ * values fall into one of 64 buckets per power of two, so any recorded value is reported within
+ * about 1.6% of its true value. Memory is fixed at a few thousand counters whatever the range.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = EXACT + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // Percentiles written by WritePercentiles, in the layout of HdrHistogram's .hgrm output
+    private static final double[] PERCENTILES = {
+        0, 10, 20, 30, 40, 50, 55, 60, 65, 70, 75, 77.5, 80, 82.5, 85, 87.5, 90, 91.25, 92.5, 93.75,
+        95, 96, 97, 97.5, 98, 98.5, 99, 99.25, 99.5, 99.75, 99.9, 99.95, 99.99, 99.999, 100
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds, negative values count as 0.
+     */
+    public void Record(long nanos) {
+        var value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long Count() {
+        return total.sum();
+    }
+
+    public long MaxNanos() {
+        return max.get();
+    }
+
+    public double MeanNanos() {
+        var count = total.sum();
+        return count > 0 ? (double) sum.sum() / count : 0;
+    }
+
+    /**
+     * Returns the latency at or below which the given share of recorded values fall.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound of the bucket holding that value, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long PercentileNanos(double percentile) {
+        var count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        var rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Writes the percentile distribution, one line per percentile, in milliseconds.
+     *
+     * @param out Where to write, e.g. a .hgrm file for plotting.
+     */
+    public void WritePercentiles(PrintStream out) {
+        var count = total.sum();
+        out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        for (var percentile : PERCENTILES) {
+            var value = PercentileNanos(percentile) / 1e6;
+            var fraction = percentile / 100;
+            var below = (long) Math.ceil(fraction * count);
+            if (fraction < 1) {
+                out.printf("%12.3f %14.12f %10d %14.2f%n", value, fraction, below, 1 / (1 - fraction));
+            } else {
+                out.printf("%12.3f %14.12f %10d%n", value, fraction, below);
+            }
+        }
+        out.printf("#[Mean    = %12.3f, Max     = %12.3f]%n", MeanNanos() / 1e6, max.get() / 1e6);
+        out.printf("#[Total count    = %12d]%n", count);
+    }
+
+    private static int index(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        // Keep the top SUB_BUCKET_BITS + 1 bits of the value, the leading one selects the power of two
+        var shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBound(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        var shift = (index - EXACT) / SUB_BUCKETS + 1;
+        var subBucket = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((long) (subBucket + 1) << shift) - 1;
+    }
+}
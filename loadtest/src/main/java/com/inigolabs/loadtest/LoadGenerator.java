@@ -0,0 +1,170 @@
+package com.inigolabs.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends one GraphQL request over and over and records how long each takes.
+ *
+ * In closed-loop mode a fixed number of clients each send their next request as soon as the
+ * previous one completes, which measures the throughput the server sustains. In open-loop mode
+ * requests start at a fixed rate whatever the server does, and latency is measured from the time
+ * a request was due to start rather than the time it was sent, so a stalled server shows up in
+ * the percentiles instead of silently lowering the request rate.
+ */
+public final class LoadGenerator {
+    public enum Mode {
+        // Fixed concurrency, each client waits for its response before sending again
+        CLOSED,
+        // Fixed arrival rate, independent of response times
+        OPEN
+    }
+
+    /**
+     * The outcome of a run.
+     *
+     * @param Requests The requests that completed, successfully or not.
+     * @param Errors The requests that failed, returned a status other than 200 or a GraphQL error.
+     * @param Dropped Open loop only, requests not started because maxInFlight requests were outstanding.
+     * @param DurationNanos The length of the run.
+     * @param Latency The latencies of the completed requests.
+     */
+    public record Result(
+        long Requests,
+        long Errors,
+        long Dropped,
+        long DurationNanos,
+        LatencyHistogram Latency
+    ) {
+        public double Throughput() {
+            return DurationNanos > 0 ? Requests * 1e9 / DurationNanos : 0;
+        }
+    }
+
+    private static final byte[] ERRORS_FIELD = "\"errors\"".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpClient client;
+    private final HttpRequest request;
+
+    /**
+     * Creates a load generator.
+     *
+     * @param client The client to send with.
+     * @param request The request to send.
+     */
+    public LoadGenerator(HttpClient client, HttpRequest request) {
+        this.client = client;
+        this.request = request;
+    }
+
+    /**
+     * Runs clients that each send a request as soon as their previous one completes.
+     *
+     * @param concurrency The number of clients.
+     * @param duration How long to send for.
+     * @return The outcome of the run.
+     */
+    public Result RunClosed(int concurrency, Duration duration) {
+        var latency = new LatencyHistogram();
+        var errors = new LongAdder();
+        var start = System.nanoTime();
+        var deadline = start + duration.toNanos();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                executor.execute(() -> {
+                    while (System.nanoTime() < deadline) {
+                        var sent = System.nanoTime();
+                        var ok = Send();
+                        latency.Record(System.nanoTime() - sent);
+                        if (!ok) {
+                            errors.increment();
+                        }
+                    }
+                });
+            }
+        }
+        return new Result(latency.Count(), errors.sum(), 0, System.nanoTime() - start, latency);
+    }
+
+    /**
+     * Starts requests at a fixed rate, each on its own virtual thread.
+     *
+     * @param rate The requests to start per second.
+     * @param duration How long to send for.
+     * @param maxInFlight The most outstanding requests, further requests are dropped and counted.
+     * @return The outcome of the run.
+     */
+    public Result RunOpen(double rate, Duration duration, int maxInFlight) {
+        var latency = new LatencyHistogram();
+        var errors = new LongAdder();
+        var dropped = new LongAdder();
+        var inFlight = new Semaphore(maxInFlight);
+        var interval = (long) (1e9 / rate);
+        var start = System.nanoTime();
+        var deadline = start + duration.toNanos();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long due = start; due < deadline; due += interval) {
+                var wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (!inFlight.tryAcquire()) {
+                    dropped.increment();
+                    continue;
+                }
+                var scheduled = due;
+                executor.execute(() -> {
+                    try {
+                        var ok = Send();
+                        latency.Record(System.nanoTime() - scheduled);
+                        if (!ok) {
+                            errors.increment();
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        return new Result(latency.Count(), errors.sum(), dropped.sum(), System.nanoTime() - start, latency);
+    }
+
+    /**
+     * Sends the request once.
+     *
+     * @return true if the server answered 200 with a response that has no errors.
+     */
+    public boolean Send() {
+        try {
+            var response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            return response.statusCode() == 200 && indexOf(response.body(), ERRORS_FIELD) < 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int indexOf(byte[] body, byte[] field) {
+        outer:
+        for (int i = 0; i <= body.length - field.length; i++) {
+            for (int j = 0; j < field.length; j++) {
+                if (body[i + j] != field[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
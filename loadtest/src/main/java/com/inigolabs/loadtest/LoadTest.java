@@ -0,0 +1,272 @@
+package com.inigolabs.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures what InigoMiddleware costs, end to end, by running the example Spring server under
+ * the same load in up to three configurations:
+ *
+ *   baseline  the server without the interceptor
+ *   stub      the interceptor against a stub of the native library, which isolates the Java side
+ *   real      the interceptor against a real native library, when INIGO_LOADTEST_LIBRARY or
+ *             --library points to one and INIGO_SERVICE_TOKEN is set; skipped otherwise
+ *
+ * Each configuration gets a fresh server process, a warmup, then a measured run. The report
+ * gives throughput, latency percentiles and server CPU time per request, and the overhead of
+ * each configuration against the baseline. Full latency distributions are written as .hgrm
+ * files and the summary as results.json in the output directory, so runs of different releases
+ * can be compared.
+ *
+ * Options are given as --name=value, see {@link Options}.
+ */
+public final class LoadTest {
+    public static class Options {
+        public Path ServerJar = Path.of("../examples/spring/target/spring-1.0.0.jar");
+        public List<String> Configs = List.of("baseline", "stub", "real");
+        public Path StubLibrary = Path.of("target/libinigo-stub.so");
+        public Path Library = env("INIGO_LOADTEST_LIBRARY") != null ? Path.of(env("INIGO_LOADTEST_LIBRARY")) : null;
+        public LoadGenerator.Mode Mode = LoadGenerator.Mode.CLOSED;
+        public int Concurrency = 16; // closed loop clients
+        public double Rate = 1000; // open loop requests per second
+        public int MaxInFlight = 1024; // open loop, requests beyond this are dropped
+        public long WarmupSeconds = 10;
+        public long DurationSeconds = 30;
+        public long StartupTimeoutSeconds = 60;
+        public String Query = "{\"query\":\"query Book($id: ID) { bookById(id: $id) { id name pageCount author { firstName lastName } } }\","
+            + "\"operationName\":\"Book\",\"variables\":{\"id\":\"book-1\"}}";
+        public List<String> JvmArgs = List.of("--enable-native-access=ALL-UNNAMED");
+        public Path Output = Path.of("target/loadtest");
+    }
+
+    private record Target(String Name, List<String> Args, Map<String, String> Environment) {}
+
+    private record Run(String Name, LoadGenerator.Result Result, Double CpuMicrosPerRequest) {}
+
+    public static void main(String[] args) throws Exception {
+        var options = parse(args);
+        if (!Files.isRegularFile(options.ServerJar)) {
+            System.err.println("ERROR: Server jar " + options.ServerJar + " not found, build it with make server");
+            System.exit(1);
+        }
+
+        var targets = new ArrayList<Target>();
+        for (var name : options.Configs) {
+            var target = target(name, options);
+            if (target != null) {
+                targets.add(target);
+            }
+        }
+
+        var runs = new ArrayList<Run>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).build();
+            for (var target : targets) {
+                runs.add(run(target, options, client));
+            }
+        }
+
+        report(runs, options, System.out);
+        Files.createDirectories(options.Output);
+        Files.writeString(options.Output.resolve("results.json"), json(runs, options));
+        System.out.println();
+        System.out.println("Latency distributions and results.json written to " + options.Output);
+    }
+
+    private static Target target(String name, Options options) {
+        switch (name) {
+            case "baseline":
+                return new Target(name, List.of("--inigo.enabled=false"), Map.of());
+            case "stub": {
+                if (!Files.isRegularFile(options.StubLibrary)) {
+                    System.err.println("WARNING: Stub library " + options.StubLibrary + " not found, build it with make stub; skipping stub");
+                    return null;
+                }
+                var token = env("INIGO_SERVICE_TOKEN") != null ? env("INIGO_SERVICE_TOKEN") : "loadtest";
+                return new Target(name, List.of(), Map.of(
+                    "INIGO_LIBRARY_PATH", options.StubLibrary.toAbsolutePath().toString(),
+                    "INIGO_SERVICE_TOKEN", token));
+            }
+            case "real": {
+                if (options.Library == null || !Files.isRegularFile(options.Library) || env("INIGO_SERVICE_TOKEN") == null) {
+                    System.err.println("NOTE: No native library or INIGO_SERVICE_TOKEN, skipping real; set INIGO_LOADTEST_LIBRARY or --library to include it");
+                    return null;
+                }
+                return new Target(name, List.of(), Map.of(
+                    "INIGO_LIBRARY_PATH", options.Library.toAbsolutePath().toString(),
+                    "INIGO_SERVICE_TOKEN", env("INIGO_SERVICE_TOKEN")));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown configuration " + name + ", expected baseline, stub or real");
+        }
+    }
+
+    private static Run run(Target target, Options options, HttpClient client) throws IOException, InterruptedException {
+        var port = freePort();
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/graphql"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(options.Query, StandardCharsets.UTF_8))
+            .build();
+
+        var command = new ArrayList<String>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(options.JvmArgs);
+        command.add("-jar");
+        command.add(options.ServerJar.toAbsolutePath().toString());
+        command.add("--server.port=" + port);
+        command.addAll(target.Args());
+
+        System.out.println("== " + target.Name() + ": starting server on port " + port);
+        try (var server = ServerProcess.Start(command, target.Environment(), options.Output.resolve(target.Name() + ".log"),
+                client, request, Duration.ofSeconds(options.StartupTimeoutSeconds))) {
+            var generator = new LoadGenerator(client, request);
+
+            System.out.println("== " + target.Name() + ": warming up for " + options.WarmupSeconds + "s");
+            generate(generator, options, Duration.ofSeconds(options.WarmupSeconds));
+
+            System.out.println("== " + target.Name() + ": measuring for " + options.DurationSeconds + "s");
+            var cpuBefore = server.CpuTime();
+            var result = generate(generator, options, Duration.ofSeconds(options.DurationSeconds));
+            var cpuAfter = server.CpuTime();
+
+            Double cpuPerRequest = null;
+            if (cpuBefore != null && cpuAfter != null && result.Requests() > 0) {
+                cpuPerRequest = cpuAfter.minus(cpuBefore).toNanos() / 1e3 / result.Requests();
+            }
+
+            Files.createDirectories(options.Output);
+            try (var out = new PrintStream(Files.newOutputStream(options.Output.resolve(target.Name() + ".hgrm")), false, StandardCharsets.UTF_8)) {
+                result.Latency().WritePercentiles(out);
+            }
+            return new Run(target.Name(), result, cpuPerRequest);
+        }
+    }
+
+    private static LoadGenerator.Result generate(LoadGenerator generator, Options options, Duration duration) {
+        return options.Mode == LoadGenerator.Mode.OPEN
+            ? generator.RunOpen(options.Rate, duration, options.MaxInFlight)
+            : generator.RunClosed(options.Concurrency, duration);
+    }
+
+    private static void report(List<Run> runs, Options options, PrintStream out) {
+        out.println();
+        out.println(options.Mode == LoadGenerator.Mode.OPEN
+            ? String.format(Locale.ROOT, "Open loop at %.0f requests/s for %ds", options.Rate, options.DurationSeconds)
+            : String.format(Locale.ROOT, "Closed loop with %d clients for %ds", options.Concurrency, options.DurationSeconds));
+        out.printf(Locale.ROOT, "%-10s %10s %8s %8s %10s %9s %9s %9s %9s %9s %12s%n",
+            "config", "requests", "errors", "dropped", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "cpu/req us");
+        for (var run : runs) {
+            var result = run.Result();
+            var latency = result.Latency();
+            out.printf(Locale.ROOT, "%-10s %10d %8d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %12s%n",
+                run.Name(), result.Requests(), result.Errors(), result.Dropped(), result.Throughput(),
+                latency.PercentileNanos(50) / 1e6, latency.PercentileNanos(90) / 1e6, latency.PercentileNanos(99) / 1e6,
+                latency.PercentileNanos(99.9) / 1e6, latency.MaxNanos() / 1e6,
+                run.CpuMicrosPerRequest() != null ? String.format(Locale.ROOT, "%.1f", run.CpuMicrosPerRequest()) : "n/a");
+        }
+
+        var baseline = runs.stream().filter(run -> run.Name().equals("baseline")).findFirst().orElse(null);
+        if (baseline == null || runs.size() < 2) {
+            return;
+        }
+        out.println();
+        out.println("Overhead against baseline:");
+        for (var run : runs) {
+            if (run == baseline) {
+                continue;
+            }
+            var latency = run.Result().Latency();
+            var base = baseline.Result().Latency();
+            out.printf(Locale.ROOT, "%-10s p50 %+.3f ms, p99 %+.3f ms, throughput %+.1f%%, cpu/req %s%n",
+                run.Name(),
+                (latency.PercentileNanos(50) - base.PercentileNanos(50)) / 1e6,
+                (latency.PercentileNanos(99) - base.PercentileNanos(99)) / 1e6,
+                (run.Result().Throughput() / baseline.Result().Throughput() - 1) * 100,
+                run.CpuMicrosPerRequest() != null && baseline.CpuMicrosPerRequest() != null
+                    ? String.format(Locale.ROOT, "%+.1f us", run.CpuMicrosPerRequest() - baseline.CpuMicrosPerRequest()) : "n/a");
+        }
+    }
+
+    private static String json(List<Run> runs, Options options) {
+        var json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"mode\": \"").append(options.Mode.name().toLowerCase(Locale.ROOT)).append("\",\n");
+        json.append("  \"concurrency\": ").append(options.Concurrency).append(",\n");
+        json.append(String.format(Locale.ROOT, "  \"rate\": %.1f,%n", options.Rate));
+        json.append("  \"durationSeconds\": ").append(options.DurationSeconds).append(",\n");
+        json.append("  \"runs\": [");
+        for (int i = 0; i < runs.size(); i++) {
+            var run = runs.get(i);
+            var result = run.Result();
+            var latency = result.Latency();
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append(String.format(Locale.ROOT,
+                "    {\"config\": \"%s\", \"requests\": %d, \"errors\": %d, \"dropped\": %d, \"throughput\": %.1f, "
+                    + "\"p50Ms\": %.3f, \"p90Ms\": %.3f, \"p99Ms\": %.3f, \"p999Ms\": %.3f, \"maxMs\": %.3f, \"meanMs\": %.3f, \"cpuMicrosPerRequest\": %s}",
+                run.Name(), result.Requests(), result.Errors(), result.Dropped(), result.Throughput(),
+                latency.PercentileNanos(50) / 1e6, latency.PercentileNanos(90) / 1e6, latency.PercentileNanos(99) / 1e6,
+                latency.PercentileNanos(99.9) / 1e6, latency.MaxNanos() / 1e6, latency.MeanNanos() / 1e6,
+                run.CpuMicrosPerRequest() != null ? String.format(Locale.ROOT, "%.1f", run.CpuMicrosPerRequest()) : "null"));
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static Options parse(String[] args) {
+        var options = new Options();
+        for (var arg : args) {
+            var separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            var name = arg.substring(2, separator);
+            var value = arg.substring(separator + 1);
+            switch (name) {
+                case "server-jar" -> options.ServerJar = Path.of(value);
+                case "configs" -> options.Configs = Arrays.asList(value.split(","));
+                case "stub-library" -> options.StubLibrary = Path.of(value);
+                case "library" -> options.Library = Path.of(value);
+                case "mode" -> options.Mode = LoadGenerator.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                case "concurrency" -> options.Concurrency = Integer.parseInt(value);
+                case "rps" -> options.Rate = Double.parseDouble(value);
+                case "max-in-flight" -> options.MaxInFlight = Integer.parseInt(value);
+                case "warmup" -> options.WarmupSeconds = Long.parseLong(value);
+                case "duration" -> options.DurationSeconds = Long.parseLong(value);
+                case "startup-timeout" -> options.StartupTimeoutSeconds = Long.parseLong(value);
+                case "query" -> options.Query = value;
+                case "jvm-args" -> options.JvmArgs = value.isBlank() ? List.of() : Arrays.asList(value.trim().split("\\s+"));
+                case "output" -> options.Output = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        return options;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String env(String name) {
+        var value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : null;
+    }
+}
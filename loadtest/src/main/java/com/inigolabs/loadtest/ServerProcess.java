@@ -0,0 +1,95 @@
+package com.inigolabs.loadtest;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server under test, running in its own JVM so its CPU time can be read from the operating
+ * system without counting the load generator.
+ */
+public final class ServerProcess implements AutoCloseable {
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(200);
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(10);
+
+    private final Process process;
+    private final Path log;
+
+    private ServerProcess(Process process, Path log) {
+        this.process = process;
+        this.log = log;
+    }
+
+    /**
+     * Starts the server and waits until it answers the probe request.
+     *
+     * @param command The command line of the server.
+     * @param environment Variables added to the inherited environment.
+     * @param log Where the server output is written.
+     * @param client The client to probe with.
+     * @param probe A request the server answers with 200 once it is ready.
+     * @param timeout How long to wait for the server.
+     * @return The running server.
+     * @throws IOException If the server cannot be started, exits or is not ready in time.
+     */
+    public static ServerProcess Start(List<String> command, Map<String, String> environment, Path log,
+            HttpClient client, HttpRequest probe, Duration timeout) throws IOException, InterruptedException {
+        Files.createDirectories(log.getParent());
+        var builder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile());
+        builder.environment().putAll(environment);
+        var server = new ServerProcess(builder.start(), log);
+
+        var deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!server.process.isAlive()) {
+                throw new IOException("Server exited with status " + server.process.exitValue() + ", see " + log);
+            }
+            try {
+                if (client.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return server;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+        server.close();
+        throw new IOException("Server not ready after " + timeout.toSeconds() + "s, see " + log);
+    }
+
+    /**
+     * Returns the CPU time the server process has used so far, across all its threads.
+     *
+     * @return The CPU time, or null if the platform does not report it.
+     */
+    public Duration CpuTime() {
+        return process.toHandle().info().totalCpuDuration().orElse(null);
+    }
+
+    public Path Log() {
+        return log;
+    }
+
+    /**
+     * Stops the server, forcibly if it does not exit in time.
+     */
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            if (!process.waitFor(STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.inigolabs;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size executor with a bounded queue, used to run native downcalls off threads that
+ * must not block, such as Netty event loops. Tasks beyond the queue limit are rejected with
+ * {@link RejectedExecutionException} instead of piling up.
+ */
+public final class BoundedExecutor implements Executor, AutoCloseable {
+    public record Stats(
+        long Submitted,
+        long Rejected,
+        int Active,
+        int QueueDepth,
+        int MaxQueueDepth,
+        long TotalQueueWaitNanos
+    ) {}
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+
+    /**
+     * Creates a bounded executor.
+     *
+     * @param name The thread name prefix.
+     * @param threads The number of worker threads.
+     * @param queueSize The maximum number of queued tasks.
+     * @param virtualThreads Whether workers run on virtual threads instead of platform daemon threads.
+     */
+    public BoundedExecutor(String name, int threads, int queueSize, boolean virtualThreads) {
+        var factory = (virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true))
+            .name(name + "-", 0)
+            .factory();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        var queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                totalQueueWaitNanos.addAndGet(System.nanoTime() - queuedAt);
+                task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        submitted.increment();
+        maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+    }
+
+    /**
+     * Returns a snapshot of the executor counters.
+     *
+     * @return The current executor statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            submitted.sum(),
+            rejected.sum(),
+            executor.getActiveCount(),
+            executor.getQueue().size(),
+            maxQueueDepth.get(),
+            totalQueueWaitNanos.get()
+        );
+    }
+
+    /**
+     * Stops accepting tasks and waits for queued tasks to finish.
+     *
+     * @param timeout The maximum time to wait.
+     * @return true if all tasks finished, false otherwise.
+     */
+    public boolean Shutdown(Duration timeout) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        Shutdown(Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,143 @@
+package com.inigolabs;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flushes buffered telemetry, by default with {@link Foreign#Flush()}, from a background thread.
+ *
+ * A flush is due every interval, but is postponed while the request rate is above the
+ * configured maximum so that flushes do not pile onto peak load. Once the maximum interval has
+ * passed a flush happens regardless of load. Intervals are jittered by up to 10% so that a fleet
+ * started at the same time does not flush in lockstep.
+ */
+public final class FlushScheduler implements AutoCloseable {
+    public record Stats(
+        long Flushes,
+        long Postponed,
+        long Failures,
+        long LastFlushNanos
+    ) {}
+
+    // Flushes buffered telemetry to Inigo
+    @FunctionalInterface
+    public interface Flusher {
+        void Flush();
+    }
+
+    private final Duration interval;
+    private final Duration maxInterval;
+    private final double maxRequestRate;
+    private final Flusher flusher;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder postponed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private Thread thread;
+
+    public FlushScheduler(Inigo.Config config) {
+        this(Duration.ofMillis(config.FlushIntervalMillis), Duration.ofMillis(config.FlushMaxIntervalMillis), config.FlushMaxRequestRate);
+    }
+
+    /**
+     * Creates a flush scheduler. Call {@link #Start()} to begin flushing.
+     *
+     * @param interval How often a flush is due.
+     * @param maxInterval The longest time between flushes, regardless of load.
+     * @param maxRequestRate The requests per second above which due flushes are postponed.
+     */
+    public FlushScheduler(Duration interval, Duration maxInterval, double maxRequestRate) {
+        this(interval, maxInterval, maxRequestRate, Foreign::Flush);
+    }
+
+    /**
+     * Creates a flush scheduler that flushes with the given flusher. Call {@link #Start()} to begin flushing.
+     *
+     * @param interval How often a flush is due.
+     * @param maxInterval The longest time between flushes, regardless of load.
+     * @param maxRequestRate The requests per second above which due flushes are postponed.
+     * @param flusher The flush to run.
+     */
+    public FlushScheduler(Duration interval, Duration maxInterval, double maxRequestRate, Flusher flusher) {
+        this.interval = interval;
+        this.maxInterval = maxInterval.compareTo(interval) > 0 ? maxInterval : interval;
+        this.maxRequestRate = maxRequestRate;
+        this.flusher = flusher;
+    }
+
+    /**
+     * Starts the flush thread.
+     */
+    public synchronized void Start() {
+        if (thread == null) {
+            thread = Thread.ofPlatform().daemon(true).name("inigo-flush").start(this::run);
+        }
+    }
+
+    /**
+     * Counts a request towards the current request rate.
+     */
+    public void RecordRequest() {
+        requests.increment();
+    }
+
+    /**
+     * Returns a snapshot of the flush counters.
+     *
+     * @return The current flush statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            flushes.sum(),
+            postponed.sum(),
+            failures.sum(),
+            lastFlushNanos.get()
+        );
+    }
+
+    @Override
+    public synchronized void close() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        var lastFlush = System.nanoTime();
+        var lastCheck = lastFlush;
+        try {
+            while (true) {
+                var jitter = 0.9 + ThreadLocalRandom.current().nextDouble(0.2);
+                Thread.sleep(Duration.ofNanos((long) (interval.toNanos() * jitter)));
+
+                var now = System.nanoTime();
+                var rate = requests.sumThenReset() * 1e9 / Math.max(1, now - lastCheck);
+                lastCheck = now;
+                if (rate > maxRequestRate && now - lastFlush < maxInterval.toNanos()) {
+                    postponed.increment();
+                    continue;
+                }
+
+                flush();
+                lastFlush = System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void flush() {
+        var start = System.nanoTime();
+        try {
+            flusher.Flush();
+            flushes.increment();
+        } catch (Exception e) {
+            failures.increment();
+            System.err.println("ERROR: Failed to flush Inigo telemetry: " + e.getMessage());
+        }
+        lastFlushNanos.set(System.nanoTime() - start);
+    }
+}
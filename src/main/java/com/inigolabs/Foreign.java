@@ -5,12 +5,14 @@ import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.SymbolLookup;
 import java.lang.foreign.ValueLayout;
 import java.lang.foreign.GroupLayout;
 import java.lang.invoke.MethodHandle;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Objects;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -19,7 +21,8 @@ public class Foreign {
     private static final SymbolLookup LOOKUP;
     private static final Linker LINKER = Linker.nativeLinker();
     private static final ObjectMapper objectMapper = new ObjectMapper();
-    
+    private static final long OUTPUT_SLOT_SIZE = ValueLayout.ADDRESS.byteSize() + ValueLayout.JAVA_LONG.byteSize();
+
     private static final MethodHandle CreateFunc;
     private static final MethodHandle CheckLastErrorFunc;
     private static final MethodHandle ProcessRequestFunc;
@@ -36,13 +39,87 @@ public class Foreign {
     private static final MethodHandle IsPersistingEnabledFunc;
     private static final MethodHandle CnoopFunc;
 
-    public record ProcessRequestResult(
-        long Handle,
-        String Output,
-        String Status,
-        String Analysis,
-        int StatusCode
-    ) {}
+    /**
+     * Result of ProcessRequest. The output, status and analysis are copied out of native memory
+     * as raw bytes right away, since the native buffers are freed with the call, and only decoded
+     * to strings when first read, since most callers never read status or analysis at all.
+     * Equality, hash code and string form are those of a record with the same components.
+     */
+    public static final class ProcessRequestResult {
+        private final long handle;
+        private final int statusCode;
+        // Each holds a decoded String, the raw UTF-8 byte[] until first read, or null
+        private Object output;
+        private Object status;
+        private Object analysis;
+
+        public ProcessRequestResult(long handle, String output, String status, String analysis, int statusCode) {
+            this(handle, (Object) output, status, analysis, statusCode);
+        }
+
+        private ProcessRequestResult(long handle, Object output, Object status, Object analysis, int statusCode) {
+            this.handle = handle;
+            this.output = output;
+            this.status = status;
+            this.analysis = analysis;
+            this.statusCode = statusCode;
+        }
+
+        public long Handle() {
+            return handle;
+        }
+
+        public String Output() {
+            return (String) (output = decode(output));
+        }
+
+        public String Status() {
+            return (String) (status = decode(status));
+        }
+
+        public String Analysis() {
+            return (String) (analysis = decode(analysis));
+        }
+
+        public int StatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Returns whether Inigo answered the request itself, without decoding the output.
+         *
+         * @return true if the request was blocked and the output holds the response.
+         */
+        public boolean IsBlocked() {
+            return output instanceof byte[] bytes ? bytes.length > 0 : output != null && !((String) output).isEmpty();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ProcessRequestResult result
+                && handle == result.handle
+                && statusCode == result.statusCode
+                && Objects.equals(Output(), result.Output())
+                && Objects.equals(Status(), result.Status())
+                && Objects.equals(Analysis(), result.Analysis());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(handle, Output(), Status(), Analysis(), statusCode);
+        }
+
+        @Override
+        public String toString() {
+            return "ProcessRequestResult[Handle=" + handle + ", Output=" + Output() + ", Status=" + Status()
+                + ", Analysis=" + Analysis() + ", StatusCode=" + statusCode + "]";
+        }
+
+        // A racing reader decodes the same bytes again, which is harmless
+        private static Object decode(Object value) {
+            return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : value;
+        }
+    }
 
     /*
         typedef struct {
@@ -84,6 +161,8 @@ public class Foreign {
                 System.load(libPath);
             } else if (Inigo.LibraryPath != null && !Inigo.LibraryPath.isEmpty()) {
                 System.load(Inigo.LibraryPath);
+            } else if (NativeLibrary.IsBundled()) {
+                System.load(NativeLibrary.Resolve(Inigo.LibraryVersion, Inigo.LibrarySha256).toString());
             } else {
                 System.setProperty("java.library.path", System.getProperty("user.dir"));
                 System.loadLibrary("libinigo");
@@ -257,11 +336,18 @@ public class Foreign {
     public static ProcessRequestResult ProcessRequest(long instanceHandle, String subgraphName, Object header, byte[] input) {
         byte[] headers = null;
         if (header != null) {
+            var event = new InigoEvents.HeaderEncode();
+            event.begin();
             try {
                 headers = objectMapper.writeValueAsBytes(header);
             } catch (Exception e) {
                 System.err.println("ERROR: Failed to serialize headers: " + e.getMessage());
             }
+            if (event.shouldCommit()) {
+                event.encoder = "jackson";
+                event.bytes = headers != null ? headers.length : 0;
+                event.commit();
+            }
         }
         return ProcessRequest(instanceHandle, subgraphName, headers, input);
     }
@@ -276,43 +362,84 @@ public class Foreign {
      * @return A ProcessRequestResult containing the output, status, and analysis.
      */
     public static ProcessRequestResult ProcessRequest(long instanceHandle, String subgraphName, byte[] header, byte[] input) {
-        final long headerLength = header != null ? header.length : 0;
-        final long subgraphNameLength = subgraphName != null ? subgraphName.length() : 0;
-        final long inputLength = input != null ? input.length : 0;
+        return ProcessRequest(instanceHandle, subgraphName, NativePayload.Of(header), NativePayload.Of(input));
+    }
+
+    /**
+     * Processes a request using the Inigo service. The header and input payloads are
+     * written directly into the native input buffer.
+     *
+     * @param instanceHandle The handle to the Inigo instance.
+     * @param subgraphName The name of the subgraph to process.
+     * @param header The encoded headers for the request.
+     * @param input The encoded input data for the request.
+     * @return A ProcessRequestResult containing the output, status, and analysis.
+     */
+    public static ProcessRequestResult ProcessRequest(long instanceHandle, String subgraphName, NativePayload header, NativePayload input) {
+        return ProcessRequest(instanceHandle, subgraphName, header, input, null);
+    }
+
+    /**
+     * Processes a request using the Inigo service. The header and input payloads are
+     * written directly into the native input buffer, and an output already in the interner is
+     * returned without copying or decoding it. Status and analysis are returned as raw bytes,
+     * decoded only if the caller reads them.
+     *
+     * @param instanceHandle The handle to the Inigo instance.
+     * @param subgraphName The name of the subgraph to process.
+     * @param header The encoded headers for the request.
+     * @param input The encoded input data for the request.
+     * @param interner The cache for repeated outputs, may be null.
+     * @return A ProcessRequestResult containing the output, status, and analysis.
+     */
+    public static ProcessRequestResult ProcessRequest(long instanceHandle, String subgraphName, NativePayload header, NativePayload input, StringInterner interner) {
+        final byte[] nameBytes = subgraphName != null ? subgraphName.getBytes(StandardCharsets.UTF_8) : null;
+        final long headerLength = header != null ? header.ByteSize() : 0;
+        final long subgraphNameLength = nameBytes != null ? nameBytes.length : 0;
+        final long inputLength = input != null ? input.ByteSize() : 0;
         
-        try (var arena = Arena.ofConfined()) {
-            var totalSize = 
-                (headerLength > 0 ? headerLength : 0) +
-                (subgraphNameLength > 0 ? subgraphNameLength : 0) +
-                (inputLength > 0 ? inputLength : 0);
+        var totalSize = 
+            (headerLength > 0 ? headerLength : 0) +
+            (subgraphNameLength > 0 ? subgraphNameLength : 0) +
+            (inputLength > 0 ? inputLength : 0);
+
+        try (var scratch = NativeMemoryPool.Default.Acquire(totalSize + OUTPUT_SLOT_SIZE * 3)) {
+            var copyEvent = new InigoEvents.RequestCopy();
+            copyEvent.begin();
 
             // Allocate input pointers in a single block
-            var mainBuffer = arena.allocate(totalSize);
-            var offset = 0;
+            var mainBuffer = scratch.allocate(totalSize);
+            var offset = 0L;
             
             var headerSegment = MemorySegment.NULL;
             if (headerLength > 0) {
                 headerSegment = mainBuffer.asSlice(offset, headerLength);
-                MemorySegment.copy(header, 0, headerSegment, ValueLayout.JAVA_BYTE, 0, (int)headerLength);
+                header.WriteTo(headerSegment);
                 offset += headerLength;
             }
 
             var subgraphNameSegment = MemorySegment.NULL;
             if (subgraphNameLength > 0) {
-                var nameBytes = subgraphName.getBytes(StandardCharsets.UTF_8);
-                subgraphNameSegment = mainBuffer.asSlice(offset, nameBytes.length);
+                subgraphNameSegment = mainBuffer.asSlice(offset, subgraphNameLength);
                 MemorySegment.copy(nameBytes, 0, subgraphNameSegment, ValueLayout.JAVA_BYTE, 0, nameBytes.length);
-                offset += nameBytes.length;
+                offset += subgraphNameLength;
             }
 
             var inputSegment = MemorySegment.NULL;
             if (inputLength > 0) {
                 inputSegment = mainBuffer.asSlice(offset, inputLength);
-                MemorySegment.copy(input, 0, inputSegment, ValueLayout.JAVA_BYTE, 0, (int)inputLength);
+                input.WriteTo(inputSegment);
+            }
+
+            if (copyEvent.shouldCommit()) {
+                copyEvent.headerBytes = headerLength;
+                copyEvent.inputBytes = inputLength;
+                copyEvent.commit();
             }
 
-            // Allocate output pointers in a single block
-            var outputBlock = arena.allocate(ValueLayout.ADDRESS.byteSize() * 6);
+            // Allocate output pointers in a single block, pooled memory is not zeroed
+            var outputBlock = scratch.allocate(OUTPUT_SLOT_SIZE * 3, ValueLayout.ADDRESS.byteSize());
+            outputBlock.fill((byte) 0);
             var outputPtr = outputBlock.asSlice(0, ValueLayout.ADDRESS.byteSize());
             var outputLenPtr = outputBlock.asSlice(ValueLayout.ADDRESS.byteSize(), ValueLayout.JAVA_LONG.byteSize());
             var statusOutputPtr = outputBlock.asSlice(ValueLayout.ADDRESS.byteSize() + ValueLayout.JAVA_LONG.byteSize(), ValueLayout.ADDRESS.byteSize());
@@ -320,6 +447,9 @@ public class Foreign {
             var analysisPtr = outputBlock.asSlice(ValueLayout.ADDRESS.byteSize() * 2 + ValueLayout.JAVA_LONG.byteSize() * 2, ValueLayout.ADDRESS.byteSize());
             var analysisLenPtr = outputBlock.asSlice(ValueLayout.ADDRESS.byteSize() * 3 + ValueLayout.JAVA_LONG.byteSize() * 2, ValueLayout.JAVA_LONG.byteSize());
             
+            var event = new InigoEvents.ProcessRequest();
+            event.begin();
+
             var requestHandle = (long) ProcessRequestFunc.invokeExact(
                 instanceHandle,
                 subgraphNameSegment,
@@ -341,15 +471,18 @@ public class Foreign {
 
             var outputLen = outputLenPtr.get(ValueLayout.JAVA_LONG, 0);
             if (outputLen > 0) {
-                var response = extractString(outputPtr, outputLen);
+                var response = extractValue(outputPtr, outputLen, interner);
                 Foreign.DisposeHandle(requestHandle);    
+                commit(event, subgraphName, headerLength, inputLength, statusCode, true);
                 return new ProcessRequestResult(0, response, null, null, statusCode);
             }
 
-            var status = extractString(statusOutputPtr, statusOutputLenPtr);
-            var analysis = extractString(analysisPtr, analysisLenPtr);
+            // The pinner owns these buffers, so they must be copied before it is disposed
+            var status = extractValue(statusOutputPtr, statusLenValue, null);
+            var analysis = extractValue(analysisPtr, analysisLenPtr.get(ValueLayout.JAVA_LONG, 0), null);
 
             Foreign.DisposePinner(requestHandle);
+            commit(event, subgraphName, headerLength, inputLength, statusCode, false);
             return new ProcessRequestResult(requestHandle, null, status, analysis, statusCode);
 
         } catch (Throwable e) {
@@ -368,14 +501,53 @@ public class Foreign {
     public static String ProcessResponse(long instanceHandle, long requestHandle, byte[] input) {
         final long inputLength = input != null ? input.length : 0;
 
-        try (var arena = Arena.ofConfined()) {
+        try (var scratch = NativeMemoryPool.Default.Acquire(inputLength + 1 + OUTPUT_SLOT_SIZE)) {
             var inputSegment = (input != null && input.length > 0) ? 
-                allocateFromNullTerminated(arena, input) : MemorySegment.NULL;
+                allocateFromNullTerminated(scratch, input) : MemorySegment.NULL;
             
-            var outputBlock = arena.allocate(ValueLayout.ADDRESS.byteSize() * 2);
+            return processResponse(scratch, instanceHandle, requestHandle, inputSegment, inputLength);
+        }
+    }
+
+    /**
+     * Processes a response using the Inigo service. The buffer is passed to the native
+     * side as is, without copying.
+     *
+     * @param instanceHandle The handle to the Inigo instance.
+     * @param requestHandle The handle to the request.
+     * @param input The serialized response.
+     * @return The processed response as a string.
+     */
+    public static String ProcessResponse(long instanceHandle, long requestHandle, NativeBuffer input) {
+        final long inputLength = input != null ? input.Size() : 0;
+
+        try (var scratch = NativeMemoryPool.Default.Acquire(OUTPUT_SLOT_SIZE)) {
+            var inputSegment = inputLength > 0 ? input.NullTerminated() : MemorySegment.NULL;
+            return processResponse(scratch, instanceHandle, requestHandle, inputSegment, inputLength);
+        }
+    }
+
+    private static void commit(InigoEvents.ProcessRequest event, String subgraphName, long headerLength, long inputLength, int statusCode, boolean blocked) {
+        if (event.shouldCommit()) {
+            event.subgraph = subgraphName;
+            event.headerBytes = headerLength;
+            event.inputBytes = inputLength;
+            event.statusCode = statusCode;
+            event.blocked = blocked;
+            event.commit();
+        }
+    }
+
+    private static String processResponse(SegmentAllocator scratch, long instanceHandle, long requestHandle, MemorySegment inputSegment, long inputLength) {
+        try {
+            var outputBlock = scratch.allocate(OUTPUT_SLOT_SIZE, ValueLayout.ADDRESS.byteSize());
+            outputBlock.fill((byte) 0);
             var outputPtr = outputBlock.asSlice(0, ValueLayout.ADDRESS.byteSize());
             var outputLenPtr = outputBlock.asSlice(ValueLayout.ADDRESS.byteSize(), ValueLayout.JAVA_LONG.byteSize());
             
+            var event = new InigoEvents.ProcessResponse();
+            event.begin();
+
             var handle = (long) ProcessResponseFunc.invokeExact(
                 instanceHandle,
                 requestHandle,
@@ -387,6 +559,11 @@ public class Foreign {
 
             var output = extractString(outputPtr, outputLenPtr);
             Foreign.DisposeHandle(handle);
+
+            if (event.shouldCommit()) {
+                event.inputBytes = inputLength;
+                event.commit();
+            }
             return output;
 
         } catch (Throwable e) {
@@ -482,11 +659,25 @@ public class Foreign {
         if (schema == null || schema.isEmpty()) {
             throw new IllegalArgumentException("Schema cannot be null or empty");
         }
-        var schemaBase64 = Base64.getEncoder().encodeToString(schema.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        return UpdateSchema(instanceHandle, schema.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Updates the schema of the Inigo instance from UTF-8 bytes, such as a schema file read as is.
+     *
+     * @param instanceHandle The handle to the Inigo instance.
+     * @param schema The new schema as UTF-8 bytes.
+     * @return true if the schema was updated successfully, false otherwise.
+     */
+    public static boolean UpdateSchema(long instanceHandle, byte[] schema) {
+        if (schema == null || schema.length == 0) {
+            throw new IllegalArgumentException("Schema cannot be null or empty");
+        }
+        var schemaBase64 = Base64.getEncoder().encode(schema);
 
         try (var arena = Arena.ofConfined()) {
             var schemaSegment = allocateFromNullTerminated(arena, schemaBase64);
-            var schemaLen = (long) schema.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+            var schemaLen = (long) schema.length;
             return (boolean) UpdateSchemaFunc.invokeExact(instanceHandle, schemaSegment, schemaLen);
         } catch (Throwable e) {
             throw new RuntimeException("Failed to call update_schema function", e);
@@ -558,21 +749,21 @@ public class Foreign {
         }
     }
 
-    private static MemorySegment allocateFromNullTerminated(Arena arena, byte[] bytes) {
+    private static MemorySegment allocateFromNullTerminated(SegmentAllocator allocator, byte[] bytes) {
         if (bytes == null || bytes.length == 0) {
             return MemorySegment.NULL;
         }
-        var segment = arena.allocate(bytes.length + 1);
+        var segment = allocator.allocate(bytes.length + 1);
         MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
         segment.set(ValueLayout.JAVA_BYTE, bytes.length, (byte) 0); // Add null-termination
         return segment;
     }
 
-    private static MemorySegment allocateFromNullTerminated(Arena arena, String str) {
+    private static MemorySegment allocateFromNullTerminated(SegmentAllocator allocator, String str) {
         if (str == null || str.isEmpty()) {
             return MemorySegment.NULL;
         }
-        return allocateFromNullTerminated(arena, str.getBytes(StandardCharsets.UTF_8));
+        return allocateFromNullTerminated(allocator, str.getBytes(StandardCharsets.UTF_8));
     }
 
     // Null-terminated string extraction
@@ -618,6 +809,23 @@ public class Foreign {
         return new String(bytes, StandardCharsets.UTF_8);
     }
 
+    // Returns an interned String, or the raw bytes for the caller to decode on demand
+    private static Object extractValue(MemorySegment stringPtr, long length, StringInterner interner) {
+        if (length <= 0) return null;
+
+        var stringSegment = stringPtr.get(ValueLayout.ADDRESS, 0);
+        if (stringSegment.address() == 0) return null;
+
+        var boundedSegment = stringSegment.reinterpret(length);
+        if (interner != null) {
+            var interned = interner.Intern(boundedSegment);
+            if (interned != null) {
+                return interned;
+            }
+        }
+        return boundedSegment.toArray(ValueLayout.JAVA_BYTE);
+    }
+
     private static String extractString(MemorySegment stringPtr, MemorySegment lengthPtr) {
         var length = lengthPtr.get(ValueLayout.JAVA_LONG, 0);
         return extractString(stringPtr, length);
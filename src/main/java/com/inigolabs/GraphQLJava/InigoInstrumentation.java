@@ -0,0 +1,124 @@
+package com.inigolabs.GraphQLJava;
+
+import com.inigolabs.Inigo;
+import com.inigolabs.InigoEngine;
+import com.inigolabs.StreamReporter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import graphql.ExecutionResult;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+
+/**
+ * Inigo for any service built on graphql-java, e.g. Vert.x, plain servlets or DGS.
+ *
+ * Install it with {@code GraphQL.newGraphQL(schema).instrumentation(instrumentation)}. The request
+ * headers are read from the {@link graphql.GraphQLContext} under {@link #HEADERS}. A request that
+ * Inigo blocks is aborted before parsing and answered with the Inigo response. The result of an
+ * executed request is reported as the {@link ExecutionResult} itself.
+ */
+public class InigoInstrumentation extends SimplePerformantInstrumentation implements AutoCloseable {
+    // GraphQLContext key for the request headers, a Map<String, List<String>>
+    public static final String HEADERS = "inigo.headers";
+
+    private final InigoEngine engine;
+
+    public InigoInstrumentation(Inigo.Config config) {
+        this(config, false);
+    }
+
+    public InigoInstrumentation(Inigo.Config config, Boolean downloadLibrary) {
+        this(createEngine(config, downloadLibrary));
+    }
+
+    public InigoInstrumentation(String token, String schema) {
+        this(new Inigo.Config(token, schema), false);
+    }
+
+    public InigoInstrumentation(InigoEngine engine) {
+        this.engine = engine;
+    }
+
+    private static InigoEngine createEngine(Inigo.Config config, Boolean downloadLibrary) {
+        if (downloadLibrary) {
+            Inigo.DownloadLibrary();
+        }
+        config.Name += " : graphql-java";
+        return new InigoEngine(config);
+    }
+
+    /**
+     * Returns the engine behind this instrumentation, e.g. for its statistics or an explicit shutdown.
+     */
+    public InigoEngine getEngine() {
+        return engine;
+    }
+
+    @Override
+    public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+        return new State();
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecution(InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        var input = parameters.getExecutionInput();
+        Map<String, ? extends List<String>> headers = parameters.getGraphQLContext().get(HEADERS);
+        var request = engine.ProcessRequest(input.getExecutionId(), headers, input.getQuery(),
+            input.getOperationName(), input.getVariables(), input.getExtensions());
+        if (request == null) {
+            return SimpleInstrumentationContext.noOp();
+        }
+
+        ((State) state).request = request;
+        // graphql-java answers an abort with instrumentExecutionResult, where the Inigo response replaces it
+        if (request.IsBlocked()) {
+            throw new AbortExecutionException(request.Result().getErrors());
+        }
+        return SimpleInstrumentationContext.whenCompleted((result, error) -> {
+            if (error != null) {
+                request.ReportError(error.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult, InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        var inigoState = state instanceof State typed ? typed : null;
+        var request = inigoState != null ? inigoState.request : null;
+        // Subscription events come through here as well, the stream reports them as they are delivered
+        if (request == null || inigoState.streaming) {
+            return CompletableFuture.completedFuture(executionResult);
+        }
+        if (request.IsBlocked()) {
+            return CompletableFuture.completedFuture(request.Result());
+        }
+        if (StreamReporter.IsStream(executionResult)) {
+            inigoState.streaming = true;
+            return CompletableFuture.completedFuture(request.ReportStream(executionResult));
+        }
+        request.Report(executionResult);
+        return CompletableFuture.completedFuture(executionResult);
+    }
+
+    /**
+     * Waits for in-flight requests, flushes telemetry and shuts down the native library.
+     */
+    @Override
+    public void close() {
+        engine.close();
+    }
+
+    // Per execution, created by graphql-java for every request
+    private static final class State implements InstrumentationState {
+        private InigoEngine.Request request;
+        private volatile boolean streaming;
+    }
+}
@@ -0,0 +1,221 @@
+package com.inigolabs;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Encodes request headers as the JSON object expected by process_service_request_v2,
+ * e.g. {"Authorization":["Bearer ..."],"X-Client":["web"]}.
+ *
+ * Headers are filtered through the allowlist and denylist from {@link Inigo.Config}.
+ * Entries of the low-cardinality headers named in HeaderCacheNames, such as Accept or the
+ * client name, are encoded once and their bytes are cached, so they are copied straight into
+ * native memory without being re-serialized. Other headers are encoded on every request:
+ * per-request values such as traceparent would only churn the cache, and credentials such as
+ * Authorization or cookies are never cached, even when listed, so they do not outlive the request.
+ */
+@SuppressWarnings("preview")
+public final class HeaderEncoder {
+    // Headers whose values typically repeat across requests
+    public static final String[] DEFAULT_CACHED_HEADERS = {
+        "accept", "accept-encoding", "accept-language", "content-type", "origin", "user-agent",
+        "apollographql-client-name", "apollographql-client-version", "graphql-client-name", "graphql-client-version"
+    };
+
+    private static final JsonStringEncoder JSON = JsonStringEncoder.getInstance();
+    private static final int MAX_DECISIONS = 4096;
+
+    // Never cached, whatever HeaderCacheNames says
+    private static final Set<String> CREDENTIALS = Set.of(
+        "authorization", "proxy-authorization", "cookie", "set-cookie", "x-api-key", "x-auth-token");
+
+    private final Set<String> allowlist;
+    private final Set<String> denylist;
+    private final Set<String> cacheNames;
+    private final int cacheSize;
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> cacheable = new ConcurrentHashMap<>();
+    private final Map<Entry, byte[]> fragments = new ConcurrentHashMap<>();
+
+    public HeaderEncoder(Inigo.Config config) {
+        this(config.HeaderAllowlist, config.HeaderDenylist, config.HeaderCacheSize, config.HeaderCacheNames);
+    }
+
+    public HeaderEncoder(String[] allowlist, String[] denylist, int cacheSize) {
+        this(allowlist, denylist, cacheSize, DEFAULT_CACHED_HEADERS);
+    }
+
+    /**
+     * Creates a header encoder.
+     *
+     * @param allowlist Header names to keep, case-insensitive. Null or empty keeps all headers.
+     * @param denylist Header names to drop, case-insensitive. Applied after the allowlist.
+     * @param cacheSize The maximum number of encoded header entries to cache, 0 disables caching.
+     * @param cacheNames Header names whose encoded entries are cached, case-insensitive. Credentials are never cached.
+     */
+    public HeaderEncoder(String[] allowlist, String[] denylist, int cacheSize, String[] cacheNames) {
+        this.allowlist = lowerCase(allowlist);
+        this.denylist = lowerCase(denylist);
+        this.cacheSize = cacheSize;
+        this.cacheNames = lowerCase(cacheNames);
+    }
+
+    /**
+     * Encodes the given headers.
+     *
+     * @param headers The request headers, e.g. Spring's HttpHeaders.
+     * @return The encoded headers, or null if headers is null.
+     */
+    public NativePayload Encode(Map<String, ? extends List<String>> headers) {
+        if (headers == null) {
+            return null;
+        }
+
+        var event = new InigoEvents.HeaderEncode();
+        event.begin();
+
+        var parts = new ArrayList<byte[]>(headers.size());
+        var size = 2L; // {}
+        for (var header : headers.entrySet()) {
+            if (!isIncluded(header.getKey())) {
+                continue;
+            }
+            var fragment = fragment(header.getKey(), header.getValue());
+            size += fragment.length + (parts.isEmpty() ? 0 : 1);
+            parts.add(fragment);
+        }
+
+        if (event.shouldCommit()) {
+            event.encoder = "cached";
+            event.headers = headers.size();
+            event.encodedHeaders = parts.size();
+            event.bytes = size;
+            event.commit();
+        }
+        return new Encoded(parts, size);
+    }
+
+    /**
+     * Returns the number of cached header entries.
+     *
+     * @return The cache size.
+     */
+    public int CachedEntries() {
+        return fragments.size();
+    }
+
+    private boolean isIncluded(String name) {
+        if (allowlist.isEmpty() && denylist.isEmpty()) {
+            return true;
+        }
+        var included = decisions.get(name);
+        if (included == null) {
+            var key = name.toLowerCase(Locale.ROOT);
+            included = (allowlist.isEmpty() || allowlist.contains(key)) && !denylist.contains(key);
+            if (decisions.size() < MAX_DECISIONS) {
+                decisions.put(name, included);
+            }
+        }
+        return included;
+    }
+
+    private boolean isCached(String name) {
+        var cached = cacheable.get(name);
+        if (cached == null) {
+            var key = name.toLowerCase(Locale.ROOT);
+            cached = cacheNames.contains(key) && !CREDENTIALS.contains(key);
+            if (cacheable.size() < MAX_DECISIONS) {
+                cacheable.put(name, cached);
+            }
+        }
+        return cached;
+    }
+
+    private byte[] fragment(String name, List<String> values) {
+        if (cacheSize <= 0 || !isCached(name)) {
+            return encode(name, values);
+        }
+
+        var key = new Entry(name, values);
+        var fragment = fragments.get(key);
+        if (fragment == null) {
+            // Only listed headers get here, so a full cache is rare, start over rather than track recency
+            if (fragments.size() >= cacheSize) {
+                fragments.clear();
+            }
+            fragment = encode(name, values);
+            fragments.put(new Entry(name, values != null ? List.copyOf(values) : null), fragment);
+        }
+        return fragment;
+    }
+
+    private static byte[] encode(String name, List<String> values) {
+        var out = new ByteArrayOutputStream(name.length() + 16);
+        out.write('"');
+        out.writeBytes(JSON.quoteAsUTF8(name));
+        out.writeBytes(new byte[] { '"', ':', '[' });
+        if (values != null) {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                var value = values.get(i);
+                if (value == null) {
+                    out.writeBytes("null".getBytes(StandardCharsets.US_ASCII));
+                    continue;
+                }
+                out.write('"');
+                out.writeBytes(JSON.quoteAsUTF8(value));
+                out.write('"');
+            }
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private static Set<String> lowerCase(String[] names) {
+        if (names == null) {
+            return Set.of();
+        }
+        var set = new HashSet<String>();
+        for (var name : names) {
+            set.add(name.toLowerCase(Locale.ROOT));
+        }
+        return Set.copyOf(set);
+    }
+
+    private record Entry(String name, List<String> values) {}
+
+    private record Encoded(List<byte[]> parts, long size) implements NativePayload {
+        @Override
+        public long ByteSize() {
+            return size;
+        }
+
+        @Override
+        public void WriteTo(MemorySegment target) {
+            var offset = 0L;
+            target.set(ValueLayout.JAVA_BYTE, offset++, (byte) '{');
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    target.set(ValueLayout.JAVA_BYTE, offset++, (byte) ',');
+                }
+                var part = parts.get(i);
+                MemorySegment.copy(part, 0, target, ValueLayout.JAVA_BYTE, offset, part.length);
+                offset += part.length;
+            }
+            target.set(ValueLayout.JAVA_BYTE, offset, (byte) '}');
+        }
+    }
+}
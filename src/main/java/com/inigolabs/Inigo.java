@@ -1,15 +1,20 @@
 package com.inigolabs;
 
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.Map;
 
 public class Inigo {
     public static String LibraryPath = null;
+    public static String LibraryVersion = NativeLibrary.LATEST; // release tag to download, e.g. v0.30.0
+    public static String LibrarySha256 = null; // expected checksum of the library, null = not checked
     
+    // What requests do while the engine starts in the background
+    public enum StartupPolicy {
+        // Skip Inigo for the request
+        PASS_THROUGH,
+        // Wait up to StartupWaitMillis for the engine, then skip Inigo
+        WAIT
+    }
+
     public static class Config {
         public Config() { }
 
@@ -29,76 +34,89 @@ public class Inigo {
         public String ServiceURL = "";
         public long Gateway;
         public boolean DisableResponseData;
-        public boolean Federation;
+        public boolean Federation; // gateway mode, subgraph fetches go through SubgraphProcessor
         public boolean FederationExample;
 
+        // Request headers sent to Inigo, names are case-insensitive
+        public String[] HeaderAllowlist; // null or empty = all headers
+        public String[] HeaderDenylist;
+        public int HeaderCacheSize = 1024; // 0 = no caching of encoded headers
+        public String[] HeaderCacheNames = HeaderEncoder.DEFAULT_CACHED_HEADERS; // headers whose encoded values are cached, credentials never are
+
+        // Request processing, 0 workers = call ProcessRequest on the thread that receives the request
+        public int RequestProcessWorkers = 0;
+        public int RequestProcessQueueSize = 1024;
+        public boolean RequestProcessVirtualThreads;
+
+        // Response reporting, 0 workers = report on the thread that completes the request
+        public int ResponseReportWorkers = 0;
+        public int ResponseReportQueueSize = 1024;
+        public ResponseReporter.OverflowPolicy ResponseReportOverflow = ResponseReporter.OverflowPolicy.DROP_NEWEST;
+        public boolean ResponseReportVirtualThreads;
+
+        // Response data sampling, unsampled responses are reported with their errors only
+        public double ResponseSampleRate = 1.0;
+        public boolean ResponseSampleErrors = true;
+        public Map<String, Double> ResponseSampleOperations; // operation name -> sample rate
+        public long ResponseSummaryThresholdBytes = 0; // larger responses are reported as errors, extensions and sizes only, 0 = disabled
+
+        // Subscription and @defer/@stream payloads, reported to Inigo in batches per stream
+        public int StreamBatchEvents = 100; // payloads per process_response call
+        public int StreamBatchMaxBytes = 1024 * 1024; // serialized size that sends a batch early
+        public long StreamBatchMillis = 1000; // longest a payload waits in a partial batch
+        public boolean StreamReopenPerBatch; // report each batch after the first in full on a new request, which counts as a request in Inigo; otherwise they are summarized on the original request
+
+        // Automatic persisted queries, used when persisting is enabled for the service
+        public int PersistedQueryCacheSize = 1000; // 0 = disabled
+
+        // Cache of repeated ProcessRequest outputs, the responses to blocked requests
+        public int ResultInternCacheSize = 0; // 0 = disabled
+        public int ResultInternMaxLength = 4096; // longer values are not cached
+
+        // Native instances created per middleware, requests are striped across them
+        public int Instances = 1;
+        public InstancePool.Striping InstanceStriping = InstancePool.Striping.THREAD;
+
+        // Schema file or directory watched for changes, null = no reloading
+        public String SchemaPath;
+        public long SchemaReloadDebounceMillis = 500;
+
+        // Adaptive concurrency limit and circuit breaker around ProcessRequest, 0 max limit = unprotected
+        public int NativeCallMaxLimit = 0;
+        public int NativeCallInitialLimit = 16;
+        public long NativeCallBudgetMillis = 50; // slower calls lower the limit, and with workers the request moves on
+        public int NativeCallBreakerThreshold = 10; // consecutive slow or failed calls that bypass Inigo, 0 = no breaker
+        public long NativeCallBreakerOpenMillis = 5000;
+        public NativeCallGuard.Policy NativeCallPolicy = NativeCallGuard.Policy.FAIL_OPEN;
+
+        // Telemetry flushing, 0 = leave flushing to the native library
+        public long FlushIntervalMillis = 0;
+        public long FlushMaxIntervalMillis = 60000; // flush at least this often, regardless of load
+        public double FlushMaxRequestRate = 1000; // requests per second above which flushes are postponed
+
+        // Log where a request handle was opened when it is reclaimed without being closed, costs a stack trace per request
+        public boolean ReportHandleLeaks;
+
+        // Time allowed on shutdown for in-flight requests and queued reports, then telemetry is flushed
+        public long ShutdownTimeoutMillis = 10000;
+
+        // Startup, async = load the library and create instances in the background
+        public boolean AsyncStartup;
+        public StartupPolicy StartupPolicy = Inigo.StartupPolicy.PASS_THROUGH; // until the engine is ready
+        public long StartupWaitMillis = 1000; // WAIT only, then pass through
+
         public String Name = "inigo-jv";
         public final String Runtime = "java" + System.getProperty("java.runtime.version");
     }
 
+    /**
+     * Resolves the native library for this platform and sets {@link #LibraryPath}. A bundled
+     * classifier jar or a verified cached copy is used when available, otherwise the library
+     * of {@link #LibraryVersion} is downloaded. See {@link NativeLibrary}.
+     */
     public static void DownloadLibrary() {
-        System.out.println("Downloading Inigo library...");
-
         try {
-            // Detect operating system
-            String osName = System.getProperty("os.name").toLowerCase();
-            String os;
-            if (osName.contains("windows")) {
-                os = "windows";
-            } else if (osName.contains("mac") || osName.contains("darwin")) {
-                os = "darwin";
-            } else {
-                os = "linux";
-            }
-            
-            // Detect architecture
-            String arch = System.getProperty("os.arch").toLowerCase();
-            String platform;
-            if (arch.contains("aarch64") || arch.contains("arm64")) {
-                platform = "arm64";
-            } else {
-                platform = "amd64";
-            }
-            
-            // Determine file extension
-            String extension;
-            switch (os) {
-                case "darwin":
-                    extension = "dylib";
-                    break;
-                case "windows":
-                    extension = "dll";
-                    break;
-                default:
-                    extension = "so";
-            }
-            
-            var fileName = String.format("inigo-%s-%s.%s", os, platform, extension);
-            var downloadUrl = "https://github.com/inigolabs/artifacts/releases/latest/download/" + fileName;
-            
-            System.out.println("Downloading from: " + downloadUrl);
-            
-            // Create temp directory if it doesn't exist
-            var tempDir = Paths.get(System.getProperty("java.io.tmpdir"), "inigo");
-            Files.createDirectories(tempDir);
-            var outputPath = tempDir.resolve(fileName);
-
-            // Download the file
-            var url = URI.create(downloadUrl).toURL();
-            var connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            HttpURLConnection.setFollowRedirects(true);
-            
-            int responseCode = connection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                try (InputStream inputStream = connection.getInputStream()) {
-                    Files.copy(inputStream, outputPath, StandardCopyOption.REPLACE_EXISTING);
-                    System.out.println("Downloaded successfully to: " + outputPath);
-                }
-                LibraryPath = outputPath.toString();
-            } else {
-                throw new IOException("Failed to download library. HTTP response code: " + responseCode);
-            }
+            LibraryPath = NativeLibrary.Resolve(LibraryVersion, LibrarySha256).toString();
         } catch (Exception e) {
             System.err.println("Error downloading Inigo library: " + e.getMessage());
             e.printStackTrace();
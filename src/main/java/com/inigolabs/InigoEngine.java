@@ -0,0 +1,551 @@
+package com.inigolabs;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import graphql.ErrorClassification;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.language.SourceLocation;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Framework-neutral request path: ProcessRequest on the way in, response reporting on the way out.
+ *
+ * Spring services use {@link com.inigolabs.Spring.InigoMiddleware}. Other frameworks can call the
+ * engine directly or install {@link com.inigolabs.GraphQLJava.InigoInstrumentation}, which hands
+ * the engine the {@link ExecutionResult} graphql-java produced, without converting it to a map first.
+ */
+public final class InigoEngine implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> RESPONSE_TYPE = new TypeReference<>() { };
+    private static final Duration DRAIN_POLL_INTERVAL = Duration.ofMillis(10);
+
+    public record Stats(
+        long Requests,
+        long Blocked,
+        long PassedThrough,
+        RequestHandles.Stats Handles,
+        ResponseReporter.Stats Reporter,
+        NativeCallGuard.Stats Guard,
+        StringInterner.Stats Interner,
+        StreamReporter.Stats Streams,
+        FlushScheduler.Stats Flush,
+        SchemaReloader.Stats SchemaReload
+    ) {}
+
+    // The native calls of the request path, replaced in tests
+    public interface Natives {
+        Foreign.ProcessRequestResult ProcessRequest(long instanceHandle, NativePayload headers, NativePayload input, StringInterner interner);
+
+        void ProcessResponse(long instanceHandle, long requestHandle, NativeBuffer response);
+
+        void DisposeHandle(long requestHandle);
+
+        // Flushes telemetry and shuts the native library down
+        void Shutdown();
+    }
+
+    private final InstancePool instances;
+    private final Natives natives;
+    private final HeaderEncoder headerEncoder;
+    private final ResponseReporter responseReporter;
+    private final StreamReporter streamReporter;
+    private final RequestHandles requestHandles;
+    private final StringInterner resultInterner;
+    private final NativeCallGuard nativeCallGuard;
+    private final FlushScheduler flushScheduler;
+    private final SchemaReloader schemaReloader;
+    private final SubgraphProcessor subgraphs;
+    private final boolean streamReopenPerBatch;
+    private final Duration shutdownTimeout;
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder passedThrough = new LongAdder();
+
+    /**
+     * Loads the native library, creates the configured instances and starts the background
+     * schema watcher and flush scheduler, if configured.
+     *
+     * @param config The Inigo configuration.
+     */
+    public InigoEngine(Inigo.Config config) {
+        this(config, new InstancePool(config), new ForeignNatives());
+    }
+
+    /**
+     * Creates an engine on instances that already exist, making its native calls through the
+     * given natives. The schema watcher and flush scheduler still use the Inigo library.
+     *
+     * @param config The Inigo configuration.
+     * @param instances The instances to stripe requests across.
+     * @param natives The native calls of the request path.
+     */
+    public InigoEngine(Inigo.Config config, InstancePool instances, Natives natives) {
+        this.instances = instances;
+        this.natives = natives;
+        headerEncoder = new HeaderEncoder(config);
+        responseReporter = new ResponseReporter(config, natives::ProcessResponse);
+        streamReporter = new StreamReporter(config, responseReporter);
+        requestHandles = new RequestHandles(config.ReportHandleLeaks, natives::DisposeHandle);
+        resultInterner = config.ResultInternCacheSize > 0 ? new StringInterner(config.ResultInternCacheSize, config.ResultInternMaxLength) : null;
+        nativeCallGuard = config.NativeCallMaxLimit > 0 ? new NativeCallGuard(config) : null;
+        streamReopenPerBatch = config.StreamReopenPerBatch;
+        shutdownTimeout = Duration.ofMillis(Math.max(0, config.ShutdownTimeoutMillis));
+
+        if (config.FlushIntervalMillis > 0) {
+            flushScheduler = new FlushScheduler(config);
+            flushScheduler.Start();
+        } else {
+            flushScheduler = null;
+        }
+
+        SchemaReloader reloader = null;
+        if (config.SchemaPath != null && !config.SchemaPath.isEmpty()) {
+            reloader = new SchemaReloader(config, instances);
+            try {
+                reloader.Start();
+            } catch (Exception e) {
+                System.err.println("ERROR: Failed to watch schema " + config.SchemaPath + ": " + e.getMessage());
+                reloader = null;
+            }
+        }
+        schemaReloader = reloader;
+        subgraphs = config.Federation ? new SubgraphProcessor(config, instances, nativeCallGuard, requestHandles) : null;
+    }
+
+    /**
+     * Runs the request side of Inigo for a GraphQL request.
+     *
+     * @param key Spreads requests across instances when striping by hash, may be null.
+     * @param headers The request headers, may be null.
+     * @param document The GraphQL document.
+     * @param operationName The operation name, may be null.
+     * @param variables The variables, may be null.
+     * @param extensions The extensions, may be null.
+     * @return The request, which must be reported or closed, or null if the request should continue without Inigo.
+     */
+    public Request ProcessRequest(Object key, Map<String, ? extends List<String>> headers, String document,
+            String operationName, Map<String, Object> variables, Map<String, Object> extensions) {
+        var query = document != null ? document.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return ProcessRequest(key, headers, RequestEncoder.Encode(query, operationName, variables, extensions), operationName);
+    }
+
+    /**
+     * Runs the request side of Inigo for a GraphQL request that is already encoded as the JSON
+     * envelope {query, operationName, variables, extensions}, e.g. the body of a GraphQL POST.
+     *
+     * @param key Spreads requests across instances when striping by hash, may be null.
+     * @param headers The request headers, may be null.
+     * @param input The encoded request.
+     * @param operationName The operation name, used for response sampling, may be null.
+     * @return The request, which must be reported or closed, or null if the request should continue without Inigo.
+     */
+    public Request ProcessRequest(Object key, Map<String, ? extends List<String>> headers, NativePayload input, String operationName) {
+        if (shutdown.get()) {
+            passedThrough.increment();
+            return null;
+        }
+        if (flushScheduler != null) {
+            flushScheduler.RecordRequest();
+        }
+
+        var event = new InigoEvents.Intercept();
+        event.begin();
+
+        var instanceHandle = instances.Select(key);
+        var encodedHeaders = headers != null ? headerEncoder.Encode(headers) : null;
+        var request = guardedProcessRequest(instanceHandle, encodedHeaders, input);
+        if (request == null) {
+            if (nativeCallGuard.Policy() == NativeCallGuard.Policy.FAIL_CLOSED) {
+                blocked.increment();
+                return new Request(0, operationName, null, null, null, ErrorResult("Too many requests", "SERVICE_UNAVAILABLE"), null, 503);
+            }
+            passedThrough.increment();
+            return null;
+        }
+        requests.increment();
+        var isBlocked = request.IsBlocked();
+
+        if (event.shouldCommit()) {
+            event.operationName = operationName;
+            event.statusCode = request.StatusCode();
+            event.blocked = isBlocked;
+            event.commit();
+        }
+
+        // Blocked requests never reach the resolvers, Inigo has already closed the request
+        if (isBlocked) {
+            blocked.increment();
+            return new Request(instanceHandle, operationName, null, null, null, BlockedResult(request), request.Output(), request.StatusCode());
+        }
+        return new Request(instanceHandle, operationName, requestHandles.Open(instanceHandle, request.Handle()), encodedHeaders, input, null, null, request.StatusCode());
+    }
+
+    // Opens a request for the next batch of a stream, Inigo applies its rules to each batch as to the original request
+    private long continueRequest(long instanceHandle, NativePayload headers, NativePayload input) {
+        if (shutdown.get()) {
+            return 0;
+        }
+        var request = guardedProcessRequest(instanceHandle, headers, input);
+        return request == null || request.IsBlocked() ? 0 : request.Handle();
+    }
+
+    // Takes a slot from the guard right before the native call and always gives it back, null if the guard rejected the call
+    private Foreign.ProcessRequestResult guardedProcessRequest(long instanceHandle, NativePayload headers, NativePayload input) {
+        if (nativeCallGuard == null) {
+            return natives.ProcessRequest(instanceHandle, headers, input, resultInterner);
+        }
+        if (!nativeCallGuard.TryAcquire()) {
+            return null;
+        }
+
+        var start = System.nanoTime();
+        var error = true;
+        try {
+            var request = natives.ProcessRequest(instanceHandle, headers, input, resultInterner);
+            error = false;
+            return request;
+        } finally {
+            nativeCallGuard.Release(System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * Waits for in-flight requests and queued reports, then flushes telemetry and shuts down
+     * the native library. Requests still open at the deadline are closed without response data.
+     * Requests arriving afterwards pass through without Inigo. Only the first call has an effect.
+     *
+     * @param timeout The maximum time to wait for requests and reports.
+     * @return true if every request and report finished in time, false otherwise.
+     */
+    public boolean Shutdown(Duration timeout) {
+        if (!shutdown.compareAndSet(false, true)) {
+            return true;
+        }
+        var deadline = System.nanoTime() + timeout.toNanos();
+        // Streams still running, e.g. open subscriptions, report what they have and release their requests
+        var drained = streamReporter.Shutdown(timeout);
+
+        while (requestHandles.Live() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(DRAIN_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        drained &= requestHandles.Live() == 0;
+        requestHandles.CloseAll(this::closeRequest);
+        drained &= responseReporter.Drain(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+
+        if (schemaReloader != null) {
+            schemaReloader.close();
+        }
+        if (subgraphs != null) {
+            subgraphs.close();
+        }
+        if (flushScheduler != null) {
+            flushScheduler.close();
+        }
+        try {
+            natives.Shutdown();
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to shut down Inigo: " + e.getMessage());
+            return false;
+        }
+        return drained;
+    }
+
+    /**
+     * Shuts down with the configured shutdown timeout.
+     */
+    @Override
+    public void close() {
+        Shutdown(shutdownTimeout);
+    }
+
+    /**
+     * Returns the instances requests are striped across.
+     *
+     * @return The instance pool.
+     */
+    public InstancePool Instances() {
+        return instances;
+    }
+
+    /**
+     * Returns the processor for the subgraph fetches of a federation gateway.
+     *
+     * @return The subgraph processor, or null unless Federation is set.
+     */
+    public SubgraphProcessor Subgraphs() {
+        return subgraphs;
+    }
+
+    /**
+     * Returns a snapshot of the engine counters.
+     *
+     * @return The current engine statistics, with null for disabled components.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            requests.sum(),
+            blocked.sum(),
+            passedThrough.sum(),
+            requestHandles.GetStats(),
+            responseReporter.GetStats(),
+            nativeCallGuard != null ? nativeCallGuard.GetStats() : null,
+            resultInterner != null ? resultInterner.GetStats() : null,
+            streamReporter.GetStats(),
+            flushScheduler != null ? flushScheduler.GetStats() : null,
+            schemaReloader != null ? schemaReloader.GetStats() : null
+        );
+    }
+
+    /**
+     * Builds the response for a request that Inigo blocked, from the output of ProcessRequest.
+     * Errors are kept exactly as Inigo produced them.
+     *
+     * @param request A blocked request.
+     * @return The response to return instead of executing the request.
+     */
+    public static ExecutionResult BlockedResult(Foreign.ProcessRequestResult request) {
+        try {
+            var spec = MAPPER.readValue(request.Output(), RESPONSE_TYPE);
+            var builder = ExecutionResult.newExecutionResult();
+            if (spec.get("errors") instanceof List<?> errors) {
+                for (var error : errors) {
+                    if (error instanceof Map<?, ?> map) {
+                        builder.addError(new InigoError(map));
+                    }
+                }
+            }
+            if (spec.containsKey("data")) {
+                builder.data(spec.get("data"));
+            }
+            if (spec.get("extensions") instanceof Map<?, ?> extensions) {
+                extensions.forEach((key, value) -> builder.addExtension(String.valueOf(key), value));
+            }
+            return builder.build();
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to parse Inigo response: " + e.getMessage());
+            var error = GraphqlErrorBuilder.newError()
+                .message("Request blocked")
+                .extensions(Map.of("code", "BLOCKED", "statusCode", request.StatusCode()))
+                .build();
+            return ExecutionResult.newExecutionResult().addError(error).build();
+        }
+    }
+
+    /**
+     * Builds a response holding a single error.
+     *
+     * @param message The error message.
+     * @param code The error code, set as the code extension.
+     * @return The error response.
+     */
+    public static ExecutionResult ErrorResult(String message, String code) {
+        var error = GraphqlErrorBuilder.newError()
+            .message(message)
+            .extensions(Map.of("code", code))
+            .build();
+        return ExecutionResult.newExecutionResult().addError(error).build();
+    }
+
+    private void closeRequest(long instanceHandle, long requestHandle) {
+        try {
+            natives.ProcessResponse(instanceHandle, requestHandle, null);
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to close request: " + e.getMessage());
+        }
+    }
+
+    private static final class ForeignNatives implements Natives {
+        @Override
+        public Foreign.ProcessRequestResult ProcessRequest(long instanceHandle, NativePayload headers, NativePayload input, StringInterner interner) {
+            return Foreign.ProcessRequest(instanceHandle, null, headers, input, interner);
+        }
+
+        @Override
+        public void ProcessResponse(long instanceHandle, long requestHandle, NativeBuffer response) {
+            Foreign.ProcessResponse(instanceHandle, requestHandle, response);
+        }
+
+        @Override
+        public void DisposeHandle(long requestHandle) {
+            Foreign.DisposeHandle(requestHandle);
+        }
+
+        @Override
+        public void Shutdown() {
+            Foreign.Flush();
+            Foreign.Shutdown();
+        }
+    }
+
+    /**
+     * A request that went through ProcessRequest. Either it was answered by Inigo, see
+     * {@link #IsBlocked()}, or it must be completed exactly once with {@link #Report},
+     * {@link #ReportStream}, {@link #ReportError} or {@link #close()}. Only the first of these has an effect.
+     */
+    public final class Request implements AutoCloseable {
+        private final long instanceHandle;
+        private final String operationName;
+        private final RequestHandles.Handle handle;
+        private final NativePayload headers;
+        private final NativePayload input;
+        private final ExecutionResult result;
+        private final String output;
+        private final int statusCode;
+
+        private Request(long instanceHandle, String operationName, RequestHandles.Handle handle,
+                NativePayload headers, NativePayload input, ExecutionResult result, String output, int statusCode) {
+            this.instanceHandle = instanceHandle;
+            this.operationName = operationName;
+            this.handle = handle;
+            this.headers = headers;
+            this.input = input;
+            this.result = result;
+            this.output = output;
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * Returns whether Inigo answered the request itself, e.g. because it was rate limited.
+         *
+         * @return true if {@link #Result()} must be returned instead of executing the request.
+         */
+        public boolean IsBlocked() {
+            return result != null;
+        }
+
+        /**
+         * Returns the response for a blocked request.
+         *
+         * @return The response, or null if the request was not blocked.
+         */
+        public ExecutionResult Result() {
+            return result;
+        }
+
+        /**
+         * Returns the response for a blocked request as Inigo produced it, for callers that relay it without parsing.
+         *
+         * @return The response JSON, or null if the request was not blocked by Inigo, e.g. it was rejected by the native call guard.
+         */
+        public String Output() {
+            return output;
+        }
+
+        /**
+         * Returns the HTTP status Inigo chose for the request, e.g. 429 for a rate limited request.
+         *
+         * @return The status code, 200 unless Inigo set one.
+         */
+        public int StatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Reports the response of an executed request.
+         *
+         * @param response The execution result.
+         */
+        public void Report(ExecutionResult response) {
+            if (handle != null && handle.Claim()) {
+                responseReporter.Submit(instanceHandle, handle.RequestHandle(), operationName, response);
+            }
+        }
+
+        /**
+         * Reports a response that is delivered incrementally, a subscription or a response with
+         * @defer or @stream payloads, in batches while the client receives it. The request stays
+         * open until the stream ends, see {@link StreamReporter} for how its batches are reported.
+         *
+         * @param response The execution result, see {@link StreamReporter#IsStream(ExecutionResult)}.
+         * @return The result to deliver instead, which reports each payload as it is emitted.
+         */
+        public ExecutionResult ReportStream(ExecutionResult response) {
+            if (handle == null) {
+                return response;
+            }
+            // Each later batch opens a request of its own only when opted in
+            StreamReporter.Continuation continuation = streamReopenPerBatch ? () -> continueRequest(instanceHandle, headers, input) : null;
+            var stream = streamReporter.Open(handle, operationName, continuation);
+            return streamReporter.Tap(response, stream);
+        }
+
+        /**
+         * Reports a response that is already serialized, e.g. one relayed from an upstream service.
+         * Sampling applies as to an execution result.
+         *
+         * @param response The response JSON as UTF-8 bytes.
+         */
+        public void Report(byte[] response) {
+            if (handle != null && handle.Claim()) {
+                responseReporter.SubmitSerialized(instanceHandle, handle.RequestHandle(), operationName, response);
+            }
+        }
+
+        /**
+         * Reports a request that failed without a response.
+         *
+         * @param message The failure message.
+         */
+        public void ReportError(String message) {
+            if (handle != null && handle.Claim()) {
+                responseReporter.SubmitError(instanceHandle, handle.RequestHandle(), message);
+            }
+        }
+
+        /**
+         * Closes the request without response data, e.g. when it was cancelled.
+         */
+        @Override
+        public void close() {
+            if (handle != null && handle.Claim()) {
+                closeRequest(instanceHandle, handle.RequestHandle());
+            }
+        }
+    }
+
+    // Error from the Inigo output, serialized back exactly as Inigo produced it
+    private record InigoError(Map<?, ?> spec) implements GraphQLError {
+        @Override
+        public String getMessage() {
+            return String.valueOf(spec.get("message"));
+        }
+
+        @Override
+        public List<SourceLocation> getLocations() {
+            return null;
+        }
+
+        @Override
+        public ErrorClassification getErrorType() {
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map<String, Object> getExtensions() {
+            return spec.get("extensions") instanceof Map<?, ?> extensions ? (Map<String, Object>) extensions : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map<String, Object> toSpecification() {
+            return (Map<String, Object>) spec;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.inigolabs;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for each step of the request and response path.
+ *
+ * The events are enabled by default, so any running recording captures them, and they can be
+ * turned off per event in a .jfc file. They follow the begin/shouldCommit/commit pattern: with
+ * no recording running the JIT removes them and they cost nothing.
+ */
+public final class InigoEvents {
+    private InigoEvents() { }
+
+    @Name("com.inigolabs.HeaderEncode")
+    @Label("Header Encode")
+    @Category({ "Inigo", "Request" })
+    @Description("Encoding request headers for process_service_request_v2")
+    @StackTrace(false)
+    public static final class HeaderEncode extends Event {
+        @Label("Encoder")
+        public String encoder;
+
+        @Label("Headers")
+        public int headers;
+
+        @Label("Encoded Headers")
+        public int encodedHeaders;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.inigolabs.RequestCopy")
+    @Label("Request Copy")
+    @Category({ "Inigo", "Request" })
+    @Description("Writing headers and input into native memory")
+    @StackTrace(false)
+    public static final class RequestCopy extends Event {
+        @Label("Header Bytes")
+        @DataAmount
+        public long headerBytes;
+
+        @Label("Input Bytes")
+        @DataAmount
+        public long inputBytes;
+    }
+
+    @Name("com.inigolabs.ProcessRequest")
+    @Label("Process Request")
+    @Category({ "Inigo", "Request" })
+    @Description("The process_service_request_v2 downcall and decoding of its result")
+    @StackTrace(false)
+    public static final class ProcessRequest extends Event {
+        @Label("Subgraph")
+        public String subgraph;
+
+        @Label("Header Bytes")
+        @DataAmount
+        public long headerBytes;
+
+        @Label("Input Bytes")
+        @DataAmount
+        public long inputBytes;
+
+        @Label("Status Code")
+        public int statusCode;
+
+        @Label("Blocked")
+        public boolean blocked;
+    }
+
+    @Name("com.inigolabs.ResponseSerialize")
+    @Label("Response Serialize")
+    @Category({ "Inigo", "Response" })
+    @Description("Serializing a response into native memory")
+    @StackTrace(false)
+    public static final class ResponseSerialize extends Event {
+        @Label("Sampled")
+        public boolean sampled;
+
+        @Label("Summarized")
+        @Description("The response was over the summary threshold, only its errors, extensions and sizes were kept")
+        public boolean summarized;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.inigolabs.ProcessResponse")
+    @Label("Process Response")
+    @Category({ "Inigo", "Response" })
+    @Description("The process_response downcall")
+    @StackTrace(false)
+    public static final class ProcessResponse extends Event {
+        @Label("Input Bytes")
+        @DataAmount
+        public long inputBytes;
+    }
+
+    @Name("com.inigolabs.SchemaReload")
+    @Label("Schema Reload")
+    @Category({ "Inigo", "Schema" })
+    @Description("Reading a changed schema and pushing it to every instance")
+    @StackTrace(false)
+    public static final class SchemaReload extends Event {
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Changed")
+        public boolean changed;
+
+        @Label("Updated")
+        public boolean updated;
+    }
+
+    @Name("com.inigolabs.Intercept")
+    @Label("Intercept")
+    @Category({ "Inigo", "Request" })
+    @Description("Request side of the middleware, from receiving the request to passing it on or blocking it")
+    @StackTrace(false)
+    public static final class Intercept extends Event {
+        @Label("Operation Name")
+        public String operationName;
+
+        @Label("Status Code")
+        public int statusCode;
+
+        @Label("Blocked")
+        public boolean blocked;
+    }
+}
@@ -0,0 +1,139 @@
+package com.inigolabs;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A set of native Inigo instances created from the same configuration, with requests striped
+ * across them to avoid contention on a single instance on hosts with many cores.
+ *
+ * A request handle must always be returned to the instance that created it, so callers keep
+ * the handle from {@link #Select(Object)} for the whole request.
+ */
+public final class InstancePool {
+    public enum Striping {
+        // The same thread always uses the same instance
+        THREAD,
+        // Spread by the hash of a per-request key, such as the request id
+        HASH
+    }
+
+    private final long[] handles;
+    private final LongAdder[] selected;
+    private final Striping striping;
+
+    public InstancePool(Inigo.Config config) {
+        this(config, Math.max(1, config.Instances), config.InstanceStriping);
+    }
+
+    /**
+     * Creates the given number of instances from one configuration.
+     *
+     * @param config The configuration for every instance.
+     * @param count The number of instances.
+     * @param striping How requests are assigned to instances.
+     */
+    public InstancePool(Inigo.Config config, int count, Striping striping) {
+        this(create(config, count), striping);
+    }
+
+    /**
+     * Stripes requests across instances that already exist.
+     *
+     * @param handles The handles of the instances.
+     * @param striping How requests are assigned to instances.
+     */
+    public InstancePool(long[] handles, Striping striping) {
+        this.striping = striping;
+        this.handles = handles.clone();
+        this.selected = new LongAdder[handles.length];
+        for (int i = 0; i < handles.length; i++) {
+            selected[i] = new LongAdder();
+        }
+    }
+
+    private static long[] create(Inigo.Config config, int count) {
+        var handles = new long[count];
+        for (int i = 0; i < count; i++) {
+            handles[i] = Foreign.Create(config);
+        }
+        return handles;
+    }
+
+    /**
+     * Picks the instance for a request.
+     *
+     * @param key The request key used by HASH striping, may be null.
+     * @return The handle of the instance.
+     */
+    public long Select(Object key) {
+        if (handles.length == 1) {
+            return handles[0];
+        }
+
+        var hash = striping == Striping.HASH && key != null
+            ? key.hashCode()
+            : Long.hashCode(Thread.currentThread().threadId());
+        var index = ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % handles.length;
+        selected[index].increment();
+        return handles[index];
+    }
+
+    /**
+     * Returns the first instance, for calls that are not tied to a request.
+     *
+     * @return The handle of the first instance.
+     */
+    public long Primary() {
+        return handles[0];
+    }
+
+    /**
+     * Returns the handles of all instances.
+     *
+     * @return A copy of the instance handles.
+     */
+    public long[] Handles() {
+        return handles.clone();
+    }
+
+    /**
+     * Returns how many requests were assigned to each instance. Not tracked with a single instance.
+     *
+     * @return The request count per instance.
+     */
+    public long[] SelectedCounts() {
+        var counts = new long[selected.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = selected[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Updates the schema of every instance.
+     *
+     * @param schema The new schema.
+     * @return true if every instance accepted the schema, false otherwise.
+     */
+    public boolean UpdateSchema(String schema) {
+        var updated = true;
+        for (var handle : handles) {
+            updated &= Foreign.UpdateSchema(handle, schema);
+        }
+        return updated;
+    }
+
+    /**
+     * Updates the schema of every instance from UTF-8 bytes.
+     *
+     * @param schema The new schema.
+     * @return true if every instance accepted the schema, false otherwise.
+     */
+    public boolean UpdateSchema(byte[] schema) {
+        var updated = true;
+        for (var handle : handles) {
+            updated &= Foreign.UpdateSchema(handle, schema);
+        }
+        return updated;
+    }
+}
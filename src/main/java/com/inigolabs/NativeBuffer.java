@@ -0,0 +1,97 @@
+package com.inigolabs;
+
+import java.io.OutputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Growable off-heap byte buffer backed by {@link NativeMemoryPool} slabs. The buffer always
+ * uses its whole slab, and growing moves the content to a slab of the next size class that
+ * fits and returns the old one to the pool. Beyond the largest class the capacity doubles.
+ *
+ * Like a scratch allocator, a buffer belongs to a single thread from creation to close.
+ */
+@SuppressWarnings("preview")
+public final class NativeBuffer extends OutputStream {
+    public static final long DEFAULT_INITIAL_CAPACITY = 16 * 1024;
+
+    private final NativeMemoryPool pool;
+    private NativeMemoryPool.Scratch scratch;
+    private MemorySegment segment;
+    private long size;
+
+    public NativeBuffer() {
+        this(NativeMemoryPool.Default, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public NativeBuffer(NativeMemoryPool pool, long initialCapacity) {
+        this.pool = pool;
+        var capacity = Math.max(initialCapacity, pool.SlabSize(initialCapacity));
+        this.scratch = pool.Acquire(capacity);
+        this.segment = scratch.allocate(capacity);
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return The buffer size in bytes.
+     */
+    public long Size() {
+        return size;
+    }
+
+    /**
+     * Returns the written bytes followed by a null terminator that is not counted in {@link #Size()}.
+     *
+     * @return A segment of {@code Size() + 1} bytes.
+     */
+    public MemorySegment NullTerminated() {
+        ensure(1);
+        segment.set(ValueLayout.JAVA_BYTE, size, (byte) 0);
+        return segment.asSlice(0, size + 1);
+    }
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        segment.set(ValueLayout.JAVA_BYTE, size++, (byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensure(len);
+        MemorySegment.copy(b, off, segment, ValueLayout.JAVA_BYTE, size, len);
+        size += len;
+    }
+
+    @Override
+    public void close() {
+        if (scratch != null) {
+            scratch.close();
+            scratch = null;
+            segment = null;
+        }
+    }
+
+    private void ensure(long extra) {
+        var required = size + extra;
+        if (required <= segment.byteSize()) {
+            return;
+        }
+
+        var capacity = pool.SlabSize(required);
+        if (capacity == 0) {
+            capacity = segment.byteSize();
+            while (capacity < required) {
+                capacity *= 2;
+            }
+        }
+
+        var grown = pool.Acquire(capacity);
+        var target = grown.allocate(capacity);
+        MemorySegment.copy(segment, 0, target, 0, size);
+        scratch.close();
+        scratch = grown;
+        segment = target;
+    }
+}
@@ -0,0 +1,218 @@
+package com.inigolabs;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Protects the service from a slow native engine by bounding concurrent native calls.
+ *
+ * The concurrency limit adapts with AIMD: every call within the latency budget raises the
+ * limit by 1/limit, so by about one per round of calls, and every slow or failed call lowers it
+ * by 10%. Consecutive slow or failed calls open a circuit breaker, which rejects every call for
+ * a while and then lets a single probe call through to decide whether to close again.
+ *
+ * What happens to a rejected call is up to the caller, see {@link Policy}.
+ */
+public final class NativeCallGuard {
+    public enum Policy {
+        // Pass rejected requests through without Inigo
+        FAIL_OPEN,
+        // Answer rejected requests with an error
+        FAIL_CLOSED
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public record Stats(
+        int Limit,
+        int Inflight,
+        State BreakerState,
+        long Accepted,
+        long Limited,
+        long ShortCircuited,
+        long Slow,
+        long Failed
+    ) {}
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long budgetNanos;
+    private final int breakerThreshold;
+    private final long breakerOpenNanos;
+    private final Policy policy;
+
+    private final AtomicLong limit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public NativeCallGuard(Inigo.Config config) {
+        this(config.NativeCallInitialLimit, config.NativeCallMaxLimit, Duration.ofMillis(config.NativeCallBudgetMillis),
+            config.NativeCallBreakerThreshold, Duration.ofMillis(config.NativeCallBreakerOpenMillis), config.NativeCallPolicy);
+    }
+
+    /**
+     * Creates a guard.
+     *
+     * @param initialLimit The starting concurrency limit.
+     * @param maxLimit The highest concurrency limit.
+     * @param budget The latency above which a call counts as slow, zero for no budget.
+     * @param breakerThreshold The consecutive slow or failed calls that open the breaker, 0 for no breaker.
+     * @param breakerOpen How long the breaker stays open before a probe call.
+     * @param policy What the caller does with rejected calls.
+     */
+    public NativeCallGuard(int initialLimit, int maxLimit, Duration budget, int breakerThreshold, Duration breakerOpen, Policy policy) {
+        this.minLimit = 1;
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        this.budgetNanos = budget.toNanos();
+        this.breakerThreshold = breakerThreshold;
+        this.breakerOpenNanos = breakerOpen.toNanos();
+        this.policy = policy;
+        this.limit = new AtomicLong(Double.doubleToLongBits(Math.clamp(initialLimit, minLimit, this.maxLimit)));
+    }
+
+    /**
+     * Takes a slot for a native call. Every successful call must be followed by {@link #Release(long, boolean)}.
+     *
+     * @return true if the call may proceed, false if it is rejected.
+     */
+    public boolean TryAcquire() {
+        var probe = false;
+        if (state.get() != State.CLOSED) {
+            probe = tryProbe();
+            if (!probe) {
+                shortCircuited.increment();
+                return false;
+            }
+        }
+
+        int current;
+        do {
+            current = inflight.get();
+            if (current >= (int) limit()) {
+                if (probe) {
+                    probing.set(false);
+                }
+                limited.increment();
+                return false;
+            }
+        } while (!inflight.compareAndSet(current, current + 1));
+
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * Returns a slot taken by {@link #TryAcquire()} and adapts the limit to the outcome of the call.
+     *
+     * @param elapsedNanos How long the call took.
+     * @param error Whether the call failed.
+     */
+    public void Release(long elapsedNanos, boolean error) {
+        inflight.decrementAndGet();
+
+        var tooSlow = budgetNanos > 0 && elapsedNanos > budgetNanos;
+        if (error || tooSlow) {
+            (error ? failed : slow).increment();
+            updateLimit(current -> Math.max(minLimit, current * DECREASE_FACTOR));
+            onFailure();
+        } else {
+            updateLimit(current -> Math.min(maxLimit, current + 1 / current));
+            onSuccess();
+        }
+    }
+
+    /**
+     * Returns the latency budget of a call.
+     *
+     * @return The budget, zero when there is none.
+     */
+    public Duration Budget() {
+        return Duration.ofNanos(budgetNanos);
+    }
+
+    /**
+     * Returns what the caller does with rejected calls.
+     *
+     * @return The rejection policy.
+     */
+    public Policy Policy() {
+        return policy;
+    }
+
+    /**
+     * Returns a snapshot of the guard counters.
+     *
+     * @return The current guard statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            (int) limit(),
+            inflight.get(),
+            state.get(),
+            accepted.sum(),
+            limited.sum(),
+            shortCircuited.sum(),
+            slow.sum(),
+            failed.sum()
+        );
+    }
+
+    private boolean tryProbe() {
+        if (state.get() == State.OPEN) {
+            if (System.nanoTime() - openedAt < breakerOpenNanos) {
+                return false;
+            }
+            state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+        return probing.compareAndSet(false, true);
+    }
+
+    private void onFailure() {
+        if (breakerThreshold <= 0) {
+            return;
+        }
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= breakerThreshold) {
+            openedAt = System.nanoTime();
+            if (state.getAndSet(State.OPEN) == State.CLOSED) {
+                System.err.println("WARNING: Inigo native calls are failing or slow, bypassing Inigo for " + Duration.ofNanos(breakerOpenNanos).toMillis() + "ms");
+            }
+            consecutiveFailures.set(0);
+            probing.set(false);
+        }
+    }
+
+    private void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            probing.set(false);
+        }
+    }
+
+    private double limit() {
+        return Double.longBitsToDouble(limit.get());
+    }
+
+    private void updateLimit(DoubleUnaryOperator update) {
+        limit.getAndUpdate(bits -> Double.doubleToLongBits(update.applyAsDouble(Double.longBitsToDouble(bits))));
+    }
+}
@@ -0,0 +1,337 @@
+package com.inigolabs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the native Inigo library to a verified file on disk.
+ *
+ * Libraries are kept in a content-addressed cache, sha256/&lt;hash&gt;/&lt;file&gt; under
+ * INIGO_CACHE_DIR or java.io.tmpdir/inigo by default. A file is checked against its SHA-256 when
+ * it is stored or first found by a process, which then only compares its size and modification
+ * time. Those are also recorded next to the file, and later startups compare only them when the
+ * hash itself came from the cache, i.e. no LibrarySha256 was pinned. A pinned or bundled checksum
+ * is always checked by hashing, since anyone able to write to the cache could forge the record.
+ * New files are written next to their final location and
+ * atomically renamed into place, so JVMs sharing a host never see a partial library. A library
+ * is taken from, in order:
+ *
+ * 1. a classifier jar on the classpath (inigo/native/&lt;os&gt;-&lt;arch&gt;/&lt;file&gt;),
+ * 2. the cache, when the version was resolved before,
+ * 3. a download from the GitHub release of the version.
+ *
+ * The "latest" version is looked up again once its cached copy is older than a day, and the
+ * cached copy is still used if that download fails.
+ */
+public final class NativeLibrary {
+    public static final String LATEST = "latest";
+
+    private static final String RELEASES_URL = "https://github.com/inigolabs/artifacts/releases/";
+    private static final String RESOURCE_ROOT = "inigo/native/";
+    private static final Duration LATEST_MAX_AGE = Duration.ofHours(24);
+    private static final String VERIFIED_SUFFIX = ".verified";
+    // Fingerprints of the files this process hashed, by path
+    private static final Map<Path, String> VERIFIED = new ConcurrentHashMap<>();
+
+    private NativeLibrary() { }
+
+    /**
+     * Returns the platform classifier, such as linux-amd64.
+     *
+     * @return The classifier of the running platform.
+     */
+    public static String Classifier() {
+        var osName = System.getProperty("os.name").toLowerCase(Locale.ROOT);
+        String os;
+        if (osName.contains("windows")) {
+            os = "windows";
+        } else if (osName.contains("mac") || osName.contains("darwin")) {
+            os = "darwin";
+        } else {
+            os = "linux";
+        }
+
+        var arch = System.getProperty("os.arch").toLowerCase(Locale.ROOT);
+        var platform = arch.contains("aarch64") || arch.contains("arm64") ? "arm64" : "amd64";
+        return os + "-" + platform;
+    }
+
+    /**
+     * Returns the library file name for the running platform, such as inigo-linux-amd64.so.
+     *
+     * @return The library file name.
+     */
+    public static String FileName() {
+        var classifier = Classifier();
+        String extension;
+        if (classifier.startsWith("darwin")) {
+            extension = "dylib";
+        } else if (classifier.startsWith("windows")) {
+            extension = "dll";
+        } else {
+            extension = "so";
+        }
+        return "inigo-" + classifier + "." + extension;
+    }
+
+    /**
+     * Returns whether a classifier jar for the running platform is on the classpath.
+     *
+     * @return true if the library is bundled, false otherwise.
+     */
+    public static boolean IsBundled() {
+        return NativeLibrary.class.getClassLoader().getResource(resourcePath()) != null;
+    }
+
+    /**
+     * Returns the default cache directory, INIGO_CACHE_DIR or java.io.tmpdir/inigo.
+     *
+     * @return The default cache directory.
+     */
+    public static Path DefaultCacheDir() {
+        var dir = System.getenv("INIGO_CACHE_DIR");
+        return dir != null && !dir.isEmpty() ? Paths.get(dir) : Paths.get(System.getProperty("java.io.tmpdir"), "inigo");
+    }
+
+    /**
+     * Resolves the library to a verified file in the default cache directory, downloading it
+     * only when no verified copy exists.
+     *
+     * @param version The release version, or "latest".
+     * @param sha256 The expected lowercase hex SHA-256 of the library, or null to accept any.
+     * @return The path of the verified library.
+     * @throws IOException If the library cannot be found, downloaded or verified.
+     */
+    public static Path Resolve(String version, String sha256) throws IOException {
+        return Resolve(version, sha256, DefaultCacheDir());
+    }
+
+    /**
+     * Resolves the library to a verified file, downloading it only when no verified copy exists.
+     *
+     * @param version The release version, or "latest".
+     * @param sha256 The expected lowercase hex SHA-256 of the library, or null to accept any.
+     * @param cacheDir The cache directory.
+     * @return The path of the verified library.
+     * @throws IOException If the library cannot be found, downloaded or verified.
+     */
+    public static Path Resolve(String version, String sha256, Path cacheDir) throws IOException {
+        var expected = sha256 != null && !sha256.isBlank() ? sha256.trim().toLowerCase(Locale.ROOT) : null;
+
+        if (IsBundled()) {
+            return extractBundled(cacheDir, expected);
+        }
+
+        if (version == null || version.isBlank()) {
+            version = LATEST;
+        }
+        var pointer = cacheDir.resolve("versions").resolve(version).resolve(FileName() + ".sha256");
+        var cachedHash = expected != null ? expected : Files.exists(pointer) ? readHash(pointer) : null;
+
+        // Pinned versions and checksums never change, a verified copy is always good
+        var cached = cachedHash != null ? verified(cacheDir, cachedHash, expected == null) : null;
+        if (cached != null && (expected != null || !version.equals(LATEST) || isFresh(pointer))) {
+            return cached;
+        }
+
+        try {
+            var downloaded = download(cacheDir, version, expected);
+            writeAtomically(pointer, downloaded.hash);
+            return downloaded.path;
+        } catch (IOException e) {
+            if (cached != null) {
+                System.err.println("WARNING: Failed to refresh Inigo library, using cached copy: " + e.getMessage());
+                return cached;
+            }
+            throw e;
+        }
+    }
+
+    private static Path extractBundled(Path cacheDir, String expected) throws IOException {
+        var loader = NativeLibrary.class.getClassLoader();
+        var sidecar = loader.getResource(resourcePath() + ".sha256");
+        String bundledHash = null;
+        if (sidecar != null) {
+            try (var input = sidecar.openStream()) {
+                bundledHash = parseHash(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        if (expected != null && bundledHash != null && !expected.equals(bundledHash)) {
+            throw new IOException("Bundled Inigo library checksum " + bundledHash + " does not match " + expected);
+        }
+
+        // With a checksum next to the resource, a previous extraction is reused without copying
+        var known = expected != null ? expected : bundledHash;
+        var cached = known != null ? verified(cacheDir, known, false) : null;
+        if (cached != null) {
+            return cached;
+        }
+
+        try (var input = loader.getResourceAsStream(resourcePath())) {
+            return store(cacheDir, input, known).path;
+        }
+    }
+
+    private static Stored download(Path cacheDir, String version, String expected) throws IOException {
+        var url = RELEASES_URL + (version.equals(LATEST) ? "latest/download/" : "download/" + version + "/") + FileName();
+        System.out.println("Downloading Inigo library from: " + url);
+
+        HttpURLConnection.setFollowRedirects(true);
+        var connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        connection.setRequestMethod("GET");
+
+        var responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Failed to download library. HTTP response code: " + responseCode);
+        }
+        try (var input = connection.getInputStream()) {
+            var stored = store(cacheDir, input, expected);
+            System.out.println("Downloaded successfully to: " + stored.path);
+            return stored;
+        }
+    }
+
+    // Copies the library into the cache under its hash, verifying it against the expected hash if given
+    private static Stored store(Path cacheDir, InputStream input, String expected) throws IOException {
+        Files.createDirectories(cacheDir);
+        var temp = Files.createTempFile(cacheDir, FileName(), ".part");
+        try {
+            var digest = sha256();
+            try (var hashing = new DigestInputStream(input, digest)) {
+                Files.copy(hashing, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            var hash = HexFormat.of().formatHex(digest.digest());
+            if (expected != null && !expected.equals(hash)) {
+                throw new IOException("Inigo library checksum " + hash + " does not match " + expected);
+            }
+
+            var target = verified(cacheDir, hash, expected == null);
+            if (target == null) {
+                target = contentPath(cacheDir, hash);
+                Files.createDirectories(target.getParent());
+                move(temp, target);
+                markVerified(target);
+            }
+            return new Stored(target, hash);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Returns the cached library if it matches its hash, hashing it unless this process, or with trustMarker a
+    // previous startup, verified it and it has not changed since
+    static Path verified(Path cacheDir, String hash, boolean trustMarker) throws IOException {
+        var path = contentPath(cacheDir, hash);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        var fingerprint = fingerprint(path);
+        if (fingerprint.equals(VERIFIED.get(path))) {
+            return path;
+        }
+        var marker = path.resolveSibling(path.getFileName() + VERIFIED_SUFFIX);
+        if (trustMarker && Files.exists(marker) && Files.readString(marker).trim().equals(fingerprint)) {
+            VERIFIED.put(path, fingerprint);
+            return path;
+        }
+        if (!hash.equals(hashOf(path))) {
+            return null;
+        }
+        markVerified(path);
+        return path;
+    }
+
+    private static void markVerified(Path path) throws IOException {
+        var fingerprint = fingerprint(path);
+        VERIFIED.put(path, fingerprint);
+        writeAtomically(path.resolveSibling(path.getFileName() + VERIFIED_SUFFIX), fingerprint);
+    }
+
+    // Size and modification time, which any rewrite of the file changes
+    private static String fingerprint(Path path) throws IOException {
+        return Files.size(path) + " " + Files.getLastModifiedTime(path).toMillis();
+    }
+
+    private static String hashOf(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        var digest = sha256();
+        try (var input = new DigestInputStream(Files.newInputStream(path), digest)) {
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void writeAtomically(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        var temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".part");
+        try {
+            Files.writeString(temp, content + "\n");
+            move(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static boolean isFresh(Path pointer) throws IOException {
+        var modified = Files.getLastModifiedTime(pointer).toInstant();
+        return modified.plus(LATEST_MAX_AGE).isAfter(Instant.now());
+    }
+
+    private static String readHash(Path path) throws IOException {
+        return parseHash(Files.readString(path));
+    }
+
+    // Accepts a bare hash or sha256sum output, "<hash>  <file>"
+    private static String parseHash(String content) {
+        var trimmed = content.trim();
+        var end = trimmed.indexOf(' ');
+        var hash = (end < 0 ? trimmed : trimmed.substring(0, end)).toLowerCase(Locale.ROOT);
+        return hash.length() == 64 ? hash : null;
+    }
+
+    private static Path contentPath(Path cacheDir, String hash) {
+        return cacheDir.resolve("sha256").resolve(hash).resolve(FileName());
+    }
+
+    private static String resourcePath() {
+        return RESOURCE_ROOT + Classifier() + "/" + FileName();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private record Stored(Path path, String hash) {}
+}
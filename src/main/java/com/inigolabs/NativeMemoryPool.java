@@ -0,0 +1,224 @@
+package com.inigolabs;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of reusable off-heap scratch slabs used by the native downcalls.
+ *
+ * Slabs are grouped in size classes (powers of four by default). A slab is handed out through a
+ * {@link Scratch} bump allocator and returned to its class when the scratch is closed,
+ * so the hot path never pays for a native malloc/free. Each slab lives in its own shared
+ * arena, which makes it usable from any platform or virtual thread and lets surplus slabs
+ * be freed individually once a class holds more than its retention limit.
+ */
+@SuppressWarnings("preview")
+public final class NativeMemoryPool implements AutoCloseable {
+    public static final long[] DEFAULT_SIZE_CLASSES = { 1L << 10, 1L << 12, 1L << 14, 1L << 16, 1L << 18, 1L << 20 };
+    public static final long DEFAULT_RETAINED_BYTES_PER_CLASS = 4L << 20;
+
+    public static final NativeMemoryPool Default = new NativeMemoryPool();
+
+    private static final long SLAB_ALIGNMENT = 64;
+
+    public record Stats(
+        long Hits,
+        long Misses,
+        long Oversized,
+        long InUseBytes,
+        long HighWaterMarkBytes,
+        long RetainedBytes
+    ) {}
+
+    private final SizeClass[] classes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+    private final AtomicLong inUseBytes = new AtomicLong();
+    private final AtomicLong highWaterMarkBytes = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private volatile boolean closed;
+
+    public NativeMemoryPool() {
+        this(DEFAULT_SIZE_CLASSES, DEFAULT_RETAINED_BYTES_PER_CLASS);
+    }
+
+    /**
+     * Creates a pool with the given size classes.
+     *
+     * @param sizeClasses The slab sizes in ascending order. An empty array disables pooling.
+     * @param retainedBytesPerClass The number of idle bytes each class may keep around.
+     */
+    public NativeMemoryPool(long[] sizeClasses, long retainedBytesPerClass) {
+        classes = new SizeClass[sizeClasses.length];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (sizeClasses[i] <= 0 || (i > 0 && sizeClasses[i] <= sizeClasses[i - 1])) {
+                throw new IllegalArgumentException("Size classes must be positive and ascending");
+            }
+            var maxRetained = (int) Math.max(2, retainedBytesPerClass / sizeClasses[i]);
+            classes[i] = new SizeClass(sizeClasses[i], maxRetained);
+        }
+    }
+
+    /**
+     * Acquires a scratch allocator able to serve at least the given number of bytes
+     * from a single pooled slab. Allocations beyond the slab spill into a private arena.
+     *
+     * @param sizeHint The total number of bytes the caller expects to allocate.
+     * @return A scratch allocator that must be closed to return its slab.
+     */
+    public Scratch Acquire(long sizeHint) {
+        var sizeClass = classFor(sizeHint);
+        if (sizeClass == null || closed) {
+            oversized.increment();
+            return new Scratch(this, null, null);
+        }
+
+        var slab = sizeClass.idle.poll();
+        if (slab != null) {
+            sizeClass.idleCount.decrementAndGet();
+            retainedBytes.addAndGet(-sizeClass.size);
+            hits.increment();
+        } else {
+            var arena = Arena.ofShared();
+            slab = new Slab(arena, arena.allocate(sizeClass.size, SLAB_ALIGNMENT));
+            misses.increment();
+        }
+
+        var inUse = inUseBytes.addAndGet(sizeClass.size);
+        highWaterMarkBytes.accumulateAndGet(inUse, Math::max);
+        return new Scratch(this, sizeClass, slab);
+    }
+
+    /**
+     * Returns the size of the slab {@link #Acquire(long)} hands out for a size hint, so callers
+     * can use the whole slab rather than a part of it.
+     *
+     * @param sizeHint The number of bytes the caller needs.
+     * @return The slab size, or 0 if the hint is larger than every size class.
+     */
+    public long SlabSize(long sizeHint) {
+        var sizeClass = classFor(sizeHint);
+        return sizeClass != null ? sizeClass.size : 0;
+    }
+
+    /**
+     * Returns a snapshot of the pool counters.
+     *
+     * @return The current pool statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            hits.sum(),
+            misses.sum(),
+            oversized.sum(),
+            inUseBytes.get(),
+            highWaterMarkBytes.get(),
+            retainedBytes.get()
+        );
+    }
+
+    /**
+     * Frees all idle slabs. Slabs still in use are freed when their scratch is closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (var sizeClass : classes) {
+            Slab slab;
+            while ((slab = sizeClass.idle.poll()) != null) {
+                sizeClass.idleCount.decrementAndGet();
+                retainedBytes.addAndGet(-sizeClass.size);
+                slab.arena.close();
+            }
+        }
+    }
+
+    private SizeClass classFor(long size) {
+        for (var sizeClass : classes) {
+            if (size <= sizeClass.size) {
+                return sizeClass;
+            }
+        }
+        return null;
+    }
+
+    private void release(SizeClass sizeClass, Slab slab) {
+        inUseBytes.addAndGet(-sizeClass.size);
+        if (!closed && sizeClass.idleCount.incrementAndGet() <= sizeClass.maxRetained) {
+            retainedBytes.addAndGet(sizeClass.size);
+            sizeClass.idle.offer(slab);
+            return;
+        }
+        sizeClass.idleCount.decrementAndGet();
+        slab.arena.close();
+    }
+
+    /**
+     * Bump allocator over a pooled slab. Not thread-safe: a scratch belongs to the single
+     * call that acquired it. Memory is reused between calls and is not zeroed.
+     */
+    public static final class Scratch implements SegmentAllocator, AutoCloseable {
+        private final NativeMemoryPool pool;
+        private final SizeClass sizeClass;
+        private final Slab slab;
+        private long offset;
+        private Arena overflow;
+        private boolean closed;
+
+        private Scratch(NativeMemoryPool pool, SizeClass sizeClass, Slab slab) {
+            this.pool = pool;
+            this.sizeClass = sizeClass;
+            this.slab = slab;
+        }
+
+        @Override
+        public MemorySegment allocate(long byteSize, long byteAlignment) {
+            if (slab != null) {
+                var start = (offset + byteAlignment - 1) & -byteAlignment;
+                if (start + byteSize <= slab.segment.byteSize()) {
+                    offset = start + byteSize;
+                    return slab.segment.asSlice(start, byteSize);
+                }
+            }
+            if (overflow == null) {
+                overflow = Arena.ofConfined();
+            }
+            return overflow.allocate(byteSize, byteAlignment);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (overflow != null) {
+                overflow.close();
+                overflow = null;
+            }
+            if (slab != null) {
+                pool.release(sizeClass, slab);
+            }
+        }
+    }
+
+    private record Slab(Arena arena, MemorySegment segment) {}
+
+    private static final class SizeClass {
+        final long size;
+        final int maxRetained;
+        final ConcurrentLinkedQueue<Slab> idle = new ConcurrentLinkedQueue<>();
+        final AtomicInteger idleCount = new AtomicInteger();
+
+        SizeClass(long size, int maxRetained) {
+            this.size = size;
+            this.maxRetained = maxRetained;
+        }
+    }
+}
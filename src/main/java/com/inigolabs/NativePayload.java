@@ -0,0 +1,48 @@
+package com.inigolabs;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Bytes that know their encoded size up front and can write themselves directly into
+ * native memory, so a downcall can lay out its input buffer without an intermediate array.
+ */
+@SuppressWarnings("preview")
+public interface NativePayload {
+    /**
+     * Returns the number of bytes written by {@link #WriteTo(MemorySegment)}.
+     *
+     * @return The encoded size in bytes.
+     */
+    long ByteSize();
+
+    /**
+     * Writes the encoded bytes to the start of the given segment.
+     *
+     * @param target A segment of at least {@link #ByteSize()} bytes.
+     */
+    void WriteTo(MemorySegment target);
+
+    /**
+     * Wraps an existing byte array.
+     *
+     * @param bytes The bytes to wrap, may be null.
+     * @return A payload over the array, or null if the array is null.
+     */
+    static NativePayload Of(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        return new NativePayload() {
+            @Override
+            public long ByteSize() {
+                return bytes.length;
+            }
+
+            @Override
+            public void WriteTo(MemorySegment target) {
+                MemorySegment.copy(bytes, 0, target, ValueLayout.JAVA_BYTE, 0, bytes.length);
+            }
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package com.inigolabs;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of query documents for automatic persisted queries (APQ).
+ *
+ * Clients send the SHA-256 hash of a document in extensions.persistedQuery.sha256Hash. A hit
+ * resolves the document, including its UTF-8 bytes for ProcessRequest. A miss is answered with
+ * PersistedQueryNotFound, after which the client resends the hash with the full document and
+ * {@link #Register(String, String)} stores it once the hash is verified.
+ *
+ * Spring GraphQL accepts a hash-only request over HTTP by substituting {@link #PLACEHOLDER} for
+ * the missing document, {@link #IsHashOnly(String)} recognizes both forms.
+ */
+public final class PersistedQueryCache {
+    public static final String NOT_FOUND = "PersistedQueryNotFound";
+    public static final String NOT_FOUND_CODE = "PERSISTED_QUERY_NOT_FOUND";
+    public static final String HASH_MISMATCH = "provided sha does not match query";
+    public static final String PLACEHOLDER = "PersistedQueryMarker"; // document Spring GraphQL reports for a hash-only request
+
+    public record Entry(
+        String Query,
+        byte[] Bytes
+    ) {}
+
+    private final Map<String, Entry> entries;
+
+    public PersistedQueryCache(int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Extracts the persisted query hash from request extensions.
+     *
+     * @param extensions The request extensions.
+     * @return The lowercase hex hash, or null if the request does not use APQ.
+     */
+    public static String HashOf(Map<String, Object> extensions) {
+        if (extensions == null || !(extensions.get("persistedQuery") instanceof Map<?, ?> persistedQuery)) {
+            return null;
+        }
+        if (!(persistedQuery.get("sha256Hash") instanceof String hash) || hash.isEmpty()) {
+            return null;
+        }
+        return hash.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns whether a request carries only a persisted query hash and no document.
+     *
+     * @param document The document of the request.
+     * @return true if the document is missing, blank or Spring GraphQL's placeholder.
+     */
+    public static boolean IsHashOnly(String document) {
+        return document == null || document.isBlank() || document.equals(PLACEHOLDER);
+    }
+
+    /**
+     * Resolves a document by hash.
+     *
+     * @param hash The lowercase hex SHA-256 hash.
+     * @return The cached document, or null on a miss.
+     */
+    public Entry Resolve(String hash) {
+        synchronized (entries) {
+            return entries.get(hash);
+        }
+    }
+
+    /**
+     * Registers a document under its hash after verifying that the hash matches.
+     *
+     * @param hash The lowercase hex SHA-256 hash sent by the client.
+     * @param query The document sent by the client.
+     * @return The cached document, or null if the hash does not match the document.
+     */
+    public Entry Register(String hash, String query) {
+        var cached = Resolve(hash);
+        if (cached != null && cached.Query().equals(query)) {
+            return cached;
+        }
+
+        var bytes = query.getBytes(StandardCharsets.UTF_8);
+        if (!HexFormat.of().formatHex(sha256(bytes)).equals(hash)) {
+            return null;
+        }
+
+        var entry = new Entry(query, bytes);
+        synchronized (entries) {
+            entries.put(hash, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the number of cached documents.
+     *
+     * @return The cache size.
+     */
+    public int Size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.inigolabs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Encodes a GraphQL request as the JSON envelope {query, operationName, variables, extensions}
+ * for process_service_request_v2.
+ *
+ * The document, usually the bulk of the request, is written straight into native memory: runs
+ * of bytes that need no escaping are copied as is, so a document without quotes, backslashes
+ * or control characters costs a single bulk copy. Only the remaining, usually small, fields go
+ * through Jackson.
+ */
+@SuppressWarnings("preview")
+public final class RequestEncoder {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] QUERY_PREFIX = "{\"query\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private RequestEncoder() { }
+
+    /**
+     * Encodes a request.
+     *
+     * @param query The document as UTF-8 bytes.
+     * @param operationName The operation name, may be null.
+     * @param variables The variables, may be null.
+     * @param extensions The extensions, may be null.
+     * @return A payload holding the JSON request.
+     */
+    public static NativePayload Encode(byte[] query, String operationName, Map<String, Object> variables, Map<String, Object> extensions) {
+        var tail = tail(operationName, variables, extensions);
+        var queryLength = escapedLength(query);
+        var byteSize = QUERY_PREFIX.length + queryLength + 1 + tail.length;
+
+        return new NativePayload() {
+            @Override
+            public long ByteSize() {
+                return byteSize;
+            }
+
+            @Override
+            public void WriteTo(MemorySegment target) {
+                MemorySegment.copy(QUERY_PREFIX, 0, target, ValueLayout.JAVA_BYTE, 0, QUERY_PREFIX.length);
+                var offset = (long) QUERY_PREFIX.length;
+                if (queryLength == query.length) {
+                    MemorySegment.copy(query, 0, target, ValueLayout.JAVA_BYTE, offset, query.length);
+                    offset += query.length;
+                } else {
+                    offset = writeEscaped(query, target, offset);
+                }
+                target.set(ValueLayout.JAVA_BYTE, offset++, (byte) '"');
+                MemorySegment.copy(tail, 0, target, ValueLayout.JAVA_BYTE, offset, tail.length);
+            }
+        };
+    }
+
+    // The fields after the query, from the separating comma to the closing brace
+    private static byte[] tail(String operationName, Map<String, Object> variables, Map<String, Object> extensions) {
+        var hasVariables = variables != null && !variables.isEmpty();
+        var hasExtensions = extensions != null && !extensions.isEmpty();
+        if (operationName == null && !hasVariables && !hasExtensions) {
+            return new byte[] { '}' };
+        }
+
+        var builder = new ByteArrayBuilder();
+        try (var generator = MAPPER.createGenerator(builder)) {
+            generator.writeStartObject();
+            if (operationName != null) {
+                generator.writeStringField("operationName", operationName);
+            }
+            if (hasVariables) {
+                generator.writeObjectField("variables", variables);
+            }
+            if (hasExtensions) {
+                generator.writeObjectField("extensions", extensions);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode request", e);
+        }
+
+        // Turn the object's opening brace into the comma after the query
+        var tail = builder.toByteArray();
+        tail[0] = ',';
+        return tail;
+    }
+
+    private static int escapedLength(byte[] bytes) {
+        var length = bytes.length;
+        for (var b : bytes) {
+            if (b == '"' || b == '\\') {
+                length += 1;
+            } else if (b >= 0 && b < 0x20) {
+                length += shortEscape(b) != 0 ? 1 : 5;
+            }
+        }
+        return length;
+    }
+
+    private static long writeEscaped(byte[] bytes, MemorySegment target, long offset) {
+        var start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            var b = bytes[i];
+            if (b != '"' && b != '\\' && (b < 0 || b >= 0x20)) {
+                continue;
+            }
+
+            MemorySegment.copy(bytes, start, target, ValueLayout.JAVA_BYTE, offset, i - start);
+            offset += i - start;
+            start = i + 1;
+
+            target.set(ValueLayout.JAVA_BYTE, offset++, (byte) '\\');
+            var escape = b == '"' || b == '\\' ? b : shortEscape(b);
+            if (escape != 0) {
+                target.set(ValueLayout.JAVA_BYTE, offset++, escape);
+            } else {
+                target.set(ValueLayout.JAVA_BYTE, offset++, (byte) 'u');
+                target.set(ValueLayout.JAVA_BYTE, offset++, (byte) '0');
+                target.set(ValueLayout.JAVA_BYTE, offset++, (byte) '0');
+                target.set(ValueLayout.JAVA_BYTE, offset++, HEX[b >> 4]);
+                target.set(ValueLayout.JAVA_BYTE, offset++, HEX[b & 0xF]);
+            }
+        }
+        MemorySegment.copy(bytes, start, target, ValueLayout.JAVA_BYTE, offset, bytes.length - start);
+        return offset + bytes.length - start;
+    }
+
+    private static byte shortEscape(byte b) {
+        return switch (b) {
+            case '\n' -> 'n';
+            case '\r' -> 'r';
+            case '\t' -> 't';
+            case '\b' -> 'b';
+            case '\f' -> 'f';
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,189 @@
+package com.inigolabs;
+
+import java.lang.ref.Cleaner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks native request handles from ProcessRequest until they are closed.
+ *
+ * Each handle is closed exactly once, by whoever claims it first: the response path, a cancel,
+ * or a shutdown. A handle whose owner is garbage collected without claiming it, for example a
+ * request pipeline that was never subscribed, is disposed by a {@link Cleaner}, by default with
+ * {@link Foreign#DisposeHandle(long)}, so its native state does not leak. With leak reporting on, the stack that opened such a handle is logged.
+ */
+public final class RequestHandles {
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    public record Stats(
+        int Live,
+        long Opened,
+        long Closed,
+        long Reclaimed
+    ) {}
+
+    // Closes a native request, given its instance handle and request handle
+    @FunctionalInterface
+    public interface Closer {
+        void Close(long instanceHandle, long requestHandle);
+    }
+
+    // Disposes the native state of a request handle that was never closed
+    @FunctionalInterface
+    public interface Disposer {
+        void Dispose(long requestHandle);
+    }
+
+    private final boolean reportLeaks;
+    private final Disposer disposer;
+    private final Set<State> live = ConcurrentHashMap.newKeySet();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+
+    /**
+     * Creates a handle tracker.
+     *
+     * @param reportLeaks Whether to capture where each handle was opened and log it if the handle is reclaimed.
+     */
+    public RequestHandles(boolean reportLeaks) {
+        this(reportLeaks, Foreign::DisposeHandle);
+    }
+
+    /**
+     * Creates a handle tracker that reclaims unclosed handles with the given disposer.
+     *
+     * @param reportLeaks Whether to capture where each handle was opened and log it if the handle is reclaimed.
+     * @param disposer Disposes each reclaimed request handle, called on the cleaner thread.
+     */
+    public RequestHandles(boolean reportLeaks, Disposer disposer) {
+        this.reportLeaks = reportLeaks;
+        this.disposer = disposer;
+    }
+
+    /**
+     * Starts tracking a request handle.
+     *
+     * @param instanceHandle The handle to the Inigo instance that created the request.
+     * @param requestHandle The handle returned by ProcessRequest.
+     * @return The tracked handle, which must be claimed to close the request.
+     */
+    public Handle Open(long instanceHandle, long requestHandle) {
+        var state = new State(instanceHandle, requestHandle, reportLeaks ? new Throwable("Inigo request handle opened here") : null);
+        var handle = new Handle(state);
+        live.add(state);
+        opened.increment();
+        return handle;
+    }
+
+    /**
+     * Returns the number of handles that are open and unclaimed.
+     *
+     * @return The live handle count.
+     */
+    public int Live() {
+        return live.size();
+    }
+
+    /**
+     * Claims every live handle and closes it.
+     *
+     * @param closer Closes each claimed request.
+     */
+    public void CloseAll(Closer closer) {
+        for (var state : live) {
+            if (state.claim()) {
+                closed.increment();
+                closer.Close(state.instanceHandle, state.requestHandle);
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the handle counters.
+     *
+     * @return The current handle statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            live.size(),
+            opened.sum(),
+            closed.sum(),
+            reclaimed.sum()
+        );
+    }
+
+    public final class Handle {
+        private final State state;
+        private final Cleaner.Cleanable cleanable;
+
+        private Handle(State state) {
+            this.state = state;
+            this.cleanable = CLEANER.register(this, state);
+        }
+
+        public long InstanceHandle() {
+            return state.instanceHandle;
+        }
+
+        public long RequestHandle() {
+            return state.requestHandle;
+        }
+
+        /**
+         * Takes over closing the request. Only the first claim succeeds.
+         *
+         * @return true if the caller must now close the request, false if it was already claimed.
+         */
+        public boolean Claim() {
+            if (!state.claim()) {
+                return false;
+            }
+            closed.increment();
+            cleanable.clean();
+            return true;
+        }
+    }
+
+    // Must not reference its Handle, or the handle would never become unreachable
+    private final class State implements Runnable {
+        private final long instanceHandle;
+        private final long requestHandle;
+        private final Throwable openedAt;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private State(long instanceHandle, long requestHandle, Throwable openedAt) {
+            this.instanceHandle = instanceHandle;
+            this.requestHandle = requestHandle;
+            this.openedAt = openedAt;
+        }
+
+        private boolean claim() {
+            if (!claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            live.remove(this);
+            return true;
+        }
+
+        // Runs on the cleaner thread once the handle is unreachable, or right after a claim
+        @Override
+        public void run() {
+            if (!claim()) {
+                return;
+            }
+            reclaimed.increment();
+            if (openedAt != null) {
+                System.err.println("WARNING: Inigo request handle " + requestHandle + " was never closed, reclaiming it");
+                openedAt.printStackTrace();
+            }
+            try {
+                disposer.Dispose(requestHandle);
+            } catch (Exception e) {
+                System.err.println("ERROR: Failed to dispose request handle: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.inigolabs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import graphql.ExecutionResult;
+
+/**
+ * Reports completed responses to Inigo through process_response.
+ *
+ * With ResponseReportWorkers set to 0 a report is serialized and sent on the calling thread.
+ * Otherwise reports go into a bounded queue drained by a fixed set of workers, which takes
+ * serialization and the native call off the thread that completes the request. When the queue
+ * is full the configured {@link OverflowPolicy} applies. A dropped report is not serialized, and
+ * its request handle is closed by a worker rather than by the submitting thread.
+ *
+ * Responses not picked by the {@link ResponseSampler} are reported with their errors only.
+ * Responses larger than ResponseSummaryThresholdBytes are reported as a {@link ResponseSummarizer}
+ * summary, so neither the heap nor native memory has to hold a copy of the full response.
+ */
+public final class ResponseReporter implements AutoCloseable {
+    // What happens to a report when the queue is full, drops are logged each time their count doubles
+    public enum OverflowPolicy {
+        // Wait on the submitting thread until the queue has room
+        BLOCK,
+        // Drop the new report, closing its request handle without response data
+        DROP_NEWEST,
+        // Drop the oldest queued report to make room, favouring recent responses
+        DROP_OLDEST
+    }
+
+    // Sends a serialized response to process_response, a null response closes the request without response data
+    @FunctionalInterface
+    public interface Sender {
+        void Send(long instanceHandle, long requestHandle, NativeBuffer response);
+    }
+
+    public record Stats(
+        long Submitted,
+        long Processed,
+        long Dropped,
+        long Failed,
+        long Unsampled,
+        long Summarized,
+        int QueueDepth
+    ) {}
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(100);
+
+    private final ResponseSampler sampler;
+    private final Sender sender;
+    private final long summaryThreshold;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<Report> queue;
+    private final ConcurrentLinkedQueue<Close> pendingCloses = new ConcurrentLinkedQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder unsampled = new LongAdder();
+    private final LongAdder summarized = new LongAdder();
+    private volatile boolean closed;
+
+    public ResponseReporter(Inigo.Config config) {
+        this(config, Foreign::ProcessResponse);
+    }
+
+    public ResponseReporter(Inigo.Config config, Sender sender) {
+        this(new ResponseSampler(config), config.ResponseReportWorkers, config.ResponseReportQueueSize, config.ResponseReportOverflow,
+            config.ResponseReportVirtualThreads, config.ResponseSummaryThresholdBytes, sender);
+    }
+
+    /**
+     * Creates a response reporter.
+     *
+     * @param sampler Decides which responses are reported with their data.
+     * @param workers The number of worker threads, 0 reports on the calling thread.
+     * @param queueSize The maximum number of queued reports.
+     * @param overflowPolicy What to do with a report when the queue is full.
+     * @param virtualThreads Whether workers run on virtual threads instead of platform daemon threads.
+     * @param summaryThreshold The serialized size above which a response is reported as a summary, 0 = never.
+     */
+    public ResponseReporter(ResponseSampler sampler, int workers, int queueSize, OverflowPolicy overflowPolicy, boolean virtualThreads, long summaryThreshold) {
+        this(sampler, workers, queueSize, overflowPolicy, virtualThreads, summaryThreshold, Foreign::ProcessResponse);
+    }
+
+    /**
+     * Creates a response reporter that sends responses through the given sender.
+     *
+     * @param sampler Decides which responses are reported with their data.
+     * @param workers The number of worker threads, 0 reports on the calling thread.
+     * @param queueSize The maximum number of queued reports.
+     * @param overflowPolicy What to do with a report when the queue is full.
+     * @param virtualThreads Whether workers run on virtual threads instead of platform daemon threads.
+     * @param summaryThreshold The serialized size above which a response is reported as a summary, 0 = never.
+     * @param sender Sends each serialized response, or closes the request of a dropped report.
+     */
+    public ResponseReporter(ResponseSampler sampler, int workers, int queueSize, OverflowPolicy overflowPolicy, boolean virtualThreads,
+            long summaryThreshold, Sender sender) {
+        this.sampler = sampler;
+        this.sender = sender;
+        this.summaryThreshold = summaryThreshold;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = workers > 0 ? new ArrayBlockingQueue<>(Math.max(1, queueSize)) : null;
+
+        var builder = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+        for (int i = 0; i < workers; i++) {
+            this.workers.add(builder.name("inigo-response-" + i).start(this::drain));
+        }
+    }
+
+    /**
+     * Reports an execution result for a request.
+     *
+     * @param instanceHandle The handle to the Inigo instance that created the request.
+     * @param requestHandle The handle returned by ProcessRequest.
+     * @param operationName The operation name of the request, may be null.
+     * @param result The execution result.
+     */
+    public void Submit(long instanceHandle, long requestHandle, String operationName, ExecutionResult result) {
+        submit(new Report(instanceHandle, requestHandle, operationName, result, null, false, null));
+    }
+
+    /**
+     * Reports a response that is already serialized and sampled, e.g. a batch of stream payloads.
+     * It is reported as is, sampling does not apply.
+     *
+     * @param instanceHandle The handle to the Inigo instance that created the request.
+     * @param requestHandle The handle returned by ProcessRequest.
+     * @param response The response JSON as UTF-8 bytes.
+     */
+    public void SubmitSerialized(long instanceHandle, long requestHandle, byte[] response) {
+        submit(new Report(instanceHandle, requestHandle, null, null, response, false, null));
+    }
+
+    /**
+     * Reports a response that is already serialized, e.g. one relayed from another service.
+     * An unsampled response is reported with its errors and extensions only.
+     *
+     * @param instanceHandle The handle to the Inigo instance that created the request.
+     * @param requestHandle The handle returned by ProcessRequest.
+     * @param operationName The operation name of the request, may be null.
+     * @param response The response JSON as UTF-8 bytes.
+     */
+    public void SubmitSerialized(long instanceHandle, long requestHandle, String operationName, byte[] response) {
+        submit(new Report(instanceHandle, requestHandle, operationName, null, response, true, null));
+    }
+
+    /**
+     * Reports a failed execution for a request.
+     *
+     * @param instanceHandle The handle to the Inigo instance that created the request.
+     * @param requestHandle The handle returned by ProcessRequest.
+     * @param message The error message.
+     */
+    public void SubmitError(long instanceHandle, long requestHandle, String message) {
+        submit(new Report(instanceHandle, requestHandle, null, null, null, false, message));
+    }
+
+    /**
+     * Returns a snapshot of the reporter counters.
+     *
+     * @return The current reporter statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            submitted.sum(),
+            processed.sum(),
+            dropped.sum(),
+            failed.sum(),
+            unsampled.sum(),
+            summarized.sum(),
+            queue != null ? queue.size() : 0
+        );
+    }
+
+    /**
+     * Stops accepting queued reports and waits for the workers to drain the queue. Reports still
+     * queued after the timeout are dropped, and the requests of every dropped report are closed
+     * before this returns. Reports submitted afterwards run on the calling thread.
+     *
+     * @param timeout The maximum time to wait.
+     * @return true if every queued report was processed, false otherwise.
+     */
+    public boolean Drain(Duration timeout) {
+        closed = true;
+        var deadline = System.nanoTime() + timeout.toNanos();
+        for (var worker : workers) {
+            var remaining = deadline - System.nanoTime();
+            try {
+                if (remaining <= 0 || !worker.join(Duration.ofNanos(remaining))) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        var drained = true;
+        Report report;
+        while (queue != null && (report = queue.poll()) != null) {
+            drop(report);
+            drained = false;
+        }
+        closeDropped();
+        return drained;
+    }
+
+    @Override
+    public void close() {
+        Drain(Duration.ofSeconds(5));
+    }
+
+    private void submit(Report report) {
+        submitted.increment();
+        if (queue == null || closed) {
+            process(report);
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    queue.put(report);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(report);
+                    return;
+                }
+            }
+            case DROP_NEWEST -> {
+                if (!queue.offer(report)) {
+                    overflow(report);
+                    return;
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offer(report)) {
+                    var oldest = queue.poll();
+                    if (oldest != null) {
+                        overflow(oldest);
+                    }
+                }
+            }
+        }
+
+        // Drain may have swept the queue for the last time between the closed check and the offer
+        if (closed && queue.remove(report)) {
+            process(report);
+        }
+    }
+
+    private void drain() {
+        while (!closed || !queue.isEmpty()) {
+            closeDropped();
+            try {
+                var report = queue.poll(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+                if (report != null) {
+                    process(report);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        closeDropped();
+    }
+
+    private void process(Report report) {
+        try {
+            if (report.result != null) {
+                var sampled = sampler.IsSampled(report.operationName, report.result);
+                if (!sampled) {
+                    unsampled.increment();
+                }
+                processResponse(report.instanceHandle, report.requestHandle, report.result, sampled);
+            } else if (report.serialized != null) {
+                var sampled = !report.sample || sampler.IsSampled(report.operationName, () -> ResponseSummarizer.HasErrors(report.serialized));
+                if (!sampled) {
+                    unsampled.increment();
+                }
+                processSerializedResponse(report.instanceHandle, report.requestHandle, report.serialized, sampled);
+            } else {
+                processErrorResponse(report.instanceHandle, report.requestHandle, report.error);
+            }
+            processed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            System.err.println("ERROR: Failed to report response: " + e.getMessage());
+        }
+    }
+
+    private void overflow(Report report) {
+        drop(report);
+        var count = dropped.sum();
+        if (Long.bitCount(count) == 1) {
+            System.err.println("WARNING: Inigo response queue is full, dropped " + count + " reports so far");
+        }
+    }
+
+    // Leaves closing the request to a worker, the submitting thread is the one the queue protects.
+    // Only the handles are kept, the response is released right away.
+    private void drop(Report report) {
+        dropped.increment();
+        pendingCloses.offer(new Close(report.instanceHandle, report.requestHandle));
+        if (closed) {
+            closeDropped();
+        }
+    }
+
+    private void closeDropped() {
+        Close close;
+        while ((close = pendingCloses.poll()) != null) {
+            try {
+                sender.Send(close.instanceHandle, close.requestHandle, null);
+            } catch (Exception e) {
+                failed.increment();
+                System.err.println("ERROR: Failed to close dropped request: " + e.getMessage());
+            }
+        }
+    }
+
+    private void processResponse(long instanceHandle, long requestHandle, ExecutionResult result, boolean sampled) {
+        var event = new InigoEvents.ResponseSerialize();
+        event.begin();
+
+        NativeBuffer buffer;
+        var summary = false;
+        try {
+            if (!sampled) {
+                buffer = ResponseSerializer.SerializeEnvelope(result);
+            } else if (summaryThreshold <= 0) {
+                buffer = ResponseSerializer.Serialize(result);
+            } else {
+                var measured = ResponseSerializer.Serialize(result, summaryThreshold);
+                buffer = measured.Buffer();
+                if (buffer == null) {
+                    summary = true;
+                    summarized.increment();
+                    buffer = ResponseSummarizer.Summarize(result, measured);
+                }
+            }
+        } catch (Exception e) {
+            processErrorResponse(instanceHandle, requestHandle, "Failed to serialize response: " + e.getMessage());
+            return;
+        }
+
+        if (event.shouldCommit()) {
+            event.sampled = sampled;
+            event.summarized = summary;
+            event.bytes = buffer.Size();
+            event.commit();
+        }
+
+        try (var serialized = buffer) {
+            sender.Send(instanceHandle, requestHandle, serialized);
+        }
+    }
+
+    private void processSerializedResponse(long instanceHandle, long requestHandle, byte[] response, boolean sampled) {
+        if (!sampled) {
+            NativeBuffer envelope;
+            try {
+                envelope = ResponseSummarizer.Envelope(response);
+            } catch (Exception e) {
+                processErrorResponse(instanceHandle, requestHandle, "Failed to read response: " + e.getMessage());
+                return;
+            }
+            try (var buffer = envelope) {
+                sender.Send(instanceHandle, requestHandle, buffer);
+            }
+            return;
+        }
+        if (summaryThreshold <= 0 || response.length <= summaryThreshold) {
+            try (var buffer = new NativeBuffer(NativeMemoryPool.Default, response.length + 1)) {
+                buffer.write(response, 0, response.length);
+                sender.Send(instanceHandle, requestHandle, buffer);
+            }
+            return;
+        }
+
+        NativeBuffer summary;
+        try {
+            summary = ResponseSummarizer.Summarize(response);
+        } catch (Exception e) {
+            processErrorResponse(instanceHandle, requestHandle, "Failed to summarize response: " + e.getMessage());
+            return;
+        }
+        summarized.increment();
+        try (var buffer = summary) {
+            sender.Send(instanceHandle, requestHandle, buffer);
+        }
+    }
+
+    private void processErrorResponse(long instanceHandle, long requestHandle, String message) {
+        NativeBuffer buffer = null;
+        try {
+            buffer = ResponseSerializer.SerializeValue(ResponseSerializer.ErrorResponse(message));
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to serialize error response: " + e.getMessage());
+        }
+
+        try {
+            sender.Send(instanceHandle, requestHandle, buffer);
+        } finally {
+            if (buffer != null) {
+                buffer.close();
+            }
+        }
+    }
+
+    private record Close(long instanceHandle, long requestHandle) {}
+
+    private record Report(long instanceHandle, long requestHandle, String operationName, ExecutionResult result, byte[] serialized, boolean sample, String error) {}
+}
@@ -0,0 +1,70 @@
+package com.inigolabs;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+import graphql.ExecutionResult;
+
+/**
+ * Decides which responses are reported to Inigo with their full data.
+ *
+ * Unsampled responses are reported as an envelope with only their errors and extensions, which
+ * closes the request and keeps error analytics without serializing the data.
+ */
+public final class ResponseSampler {
+    private final double rate;
+    private final boolean sampleErrors;
+    private final Map<String, Double> operationRates;
+    private final boolean disableResponseData;
+
+    public ResponseSampler(Inigo.Config config) {
+        this(config.ResponseSampleRate, config.ResponseSampleErrors, config.ResponseSampleOperations, config.DisableResponseData);
+    }
+
+    /**
+     * Creates a response sampler.
+     *
+     * @param rate The fraction of responses to sample, between 0 and 1.
+     * @param sampleErrors Whether responses with errors are always sampled.
+     * @param operationRates Sample rates by operation name, overriding the default rate.
+     * @param disableResponseData Whether Inigo ignores response data, in which case nothing is sampled.
+     */
+    public ResponseSampler(double rate, boolean sampleErrors, Map<String, Double> operationRates, boolean disableResponseData) {
+        this.rate = rate;
+        this.sampleErrors = sampleErrors;
+        this.operationRates = operationRates != null ? Map.copyOf(operationRates) : Map.of();
+        this.disableResponseData = disableResponseData;
+    }
+
+    /**
+     * Returns whether the full response should be reported.
+     *
+     * @param operationName The operation name of the request, may be null.
+     * @param result The execution result.
+     * @return true to report the full response, false to report only its envelope.
+     */
+    public boolean IsSampled(String operationName, ExecutionResult result) {
+        return IsSampled(operationName, () -> !result.getErrors().isEmpty());
+    }
+
+    /**
+     * Returns whether the full response should be reported, looking for errors only if the
+     * sample rate does not pick the response, e.g. for a serialized response that must be scanned.
+     *
+     * @param operationName The operation name of the request, may be null.
+     * @param hasErrors Whether the response has errors.
+     * @return true to report the full response, false to report only its envelope.
+     */
+    public boolean IsSampled(String operationName, BooleanSupplier hasErrors) {
+        if (disableResponseData) {
+            return false;
+        }
+
+        var sampleRate = operationName != null ? operationRates.getOrDefault(operationName, rate) : rate;
+        if (sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            return true;
+        }
+        return sampleErrors && hasErrors.getAsBoolean();
+    }
+}
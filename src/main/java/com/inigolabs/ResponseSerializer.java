@@ -0,0 +1,343 @@
+package com.inigolabs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+
+/**
+ * Streams a GraphQL response as JSON into a {@link NativeBuffer}.
+ *
+ * The execution result is walked directly instead of going through toSpecification(), so
+ * there is no intermediate map tree and the only heap buffer is the generator's recycled
+ * output chunk.
+ */
+public final class ResponseSerializer {
+    /**
+     * The outcome of a serialization with a size limit.
+     *
+     * @param Buffer The JSON response, owned by the caller, or null if it was larger than the limit.
+     * @param Bytes The serialized size of the response, a lower bound when Truncated.
+     * @param DataFields The number of field names in the response data, a lower bound when Truncated.
+     * @param Truncated Whether serialization stopped at the limit, so the counts cover only part of the response.
+     */
+    public record Measured(
+        NativeBuffer Buffer,
+        long Bytes,
+        long DataFields,
+        boolean Truncated
+    ) {}
+
+    private static final JsonFactory FACTORY = new ObjectMapper().getFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private ResponseSerializer() { }
+
+    /**
+     * Serializes an execution result in the GraphQL response format.
+     *
+     * @param result The execution result.
+     * @return A buffer holding the JSON response, owned by the caller.
+     */
+    public static NativeBuffer Serialize(ExecutionResult result) throws IOException {
+        var buffer = new NativeBuffer();
+        try (var generator = FACTORY.createGenerator(buffer)) {
+            Write(generator, result);
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        return buffer;
+    }
+
+    /**
+     * Serializes an execution result unless it is larger than a limit. Serialization stops as soon
+     * as the output crosses the limit, so an oversized response costs no more than the limit to
+     * find out about, and its size and field count are only known up to that point.
+     *
+     * @param result The execution result.
+     * @param maxBytes The largest serialized size to keep.
+     * @return The response if it fits in maxBytes, with its size and the number of fields in its data.
+     */
+    public static Measured Serialize(ExecutionResult result, long maxBytes) throws IOException {
+        // A small limit starts from a small slab, down to the smallest size class, and grows like any other buffer
+        var buffer = new NativeBuffer(NativeMemoryPool.Default, Math.max(1, Math.min(maxBytes, NativeBuffer.DEFAULT_INITIAL_CAPACITY)));
+        var output = new LimitedOutputStream(buffer, maxBytes);
+        var generator = new FieldCounter(FACTORY.createGenerator(output));
+        try (generator) {
+            write(generator, result, generator);
+        } catch (LimitExceededException e) {
+            buffer.close();
+            return new Measured(null, output.count, generator.fields, true);
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        return new Measured(buffer, output.count, generator.fields, false);
+    }
+
+    /**
+     * Measures the serialized size of a whole execution result without keeping the output.
+     *
+     * @param result The execution result.
+     * @return The size of the response and the number of fields in its data, with no buffer.
+     */
+    public static Measured Measure(ExecutionResult result) throws IOException {
+        var output = new LimitedOutputStream(OutputStream.nullOutputStream(), Long.MAX_VALUE);
+        var generator = new FieldCounter(FACTORY.createGenerator(output));
+        try (generator) {
+            write(generator, result, generator);
+        }
+        return new Measured(null, output.count, generator.fields, false);
+    }
+
+    /**
+     * Serializes the errors and extensions of an execution result, for responses whose data is not reported.
+     *
+     * @param result The execution result.
+     * @return A buffer holding the JSON envelope, owned by the caller.
+     */
+    public static NativeBuffer SerializeEnvelope(ExecutionResult result) throws IOException {
+        var buffer = new NativeBuffer(NativeMemoryPool.Default, 1024);
+        try (var generator = FACTORY.createGenerator(buffer)) {
+            WriteEnvelope(generator, result);
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        return buffer;
+    }
+
+    /**
+     * Serializes an arbitrary value made of maps, lists and scalars.
+     *
+     * @param value The value to serialize.
+     * @return A buffer holding the JSON value, owned by the caller.
+     */
+    public static NativeBuffer SerializeValue(Object value) throws IOException {
+        var buffer = new NativeBuffer();
+        try (var generator = FACTORY.createGenerator(buffer)) {
+            writeValue(generator, value);
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes an execution result with the same fields as ExecutionResult.toSpecification().
+     *
+     * @param generator The generator to write to.
+     * @param result The execution result.
+     */
+    public static void Write(JsonGenerator generator, ExecutionResult result) throws IOException {
+        write(generator, result, null);
+    }
+
+    // Writes an execution result, counting the field names in its data when a counter is given
+    private static void write(JsonGenerator generator, ExecutionResult result, FieldCounter counter) throws IOException {
+        generator.writeStartObject();
+
+        var errors = result.getErrors();
+        if (errors != null && !errors.isEmpty()) {
+            generator.writeFieldName("errors");
+            WriteErrors(generator, errors);
+        }
+
+        if (result.isDataPresent()) {
+            generator.writeFieldName("data");
+            if (counter != null) {
+                counter.counting = true;
+            }
+            writeValue(generator, result.getData());
+            if (counter != null) {
+                counter.counting = false;
+            }
+        }
+
+        var extensions = result.getExtensions();
+        if (extensions != null) {
+            generator.writeFieldName("extensions");
+            writeValue(generator, extensions);
+        }
+
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the errors and extensions of an execution result, for responses whose data is not reported.
+     *
+     * @param generator The generator to write to.
+     * @param result The execution result.
+     */
+    public static void WriteEnvelope(JsonGenerator generator, ExecutionResult result) throws IOException {
+        generator.writeStartObject();
+        var errors = result.getErrors();
+        if (errors != null && !errors.isEmpty()) {
+            generator.writeFieldName("errors");
+            WriteErrors(generator, errors);
+        }
+        var extensions = result.getExtensions();
+        if (extensions != null) {
+            generator.writeFieldName("extensions");
+            writeValue(generator, extensions);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes an arbitrary value made of maps, lists and scalars.
+     *
+     * @param generator The generator to write to.
+     * @param value The value to write.
+     */
+    public static void WriteValue(JsonGenerator generator, Object value) throws IOException {
+        writeValue(generator, value);
+    }
+
+    /**
+     * Writes a list of GraphQL errors in their specification form.
+     *
+     * @param generator The generator to write to.
+     * @param errors The errors to write.
+     */
+    public static void WriteErrors(JsonGenerator generator, List<GraphQLError> errors) throws IOException {
+        generator.writeStartArray();
+        for (var error : errors) {
+            writeValue(generator, error.toSpecification());
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Builds the error response reported when execution fails or cannot be serialized.
+     *
+     * @param message The error message.
+     * @return The error response.
+     */
+    public static Map<String, Object> ErrorResponse(String message) {
+        var error = new LinkedHashMap<String, Object>();
+        error.put("message", message != null ? message : "Unknown error");
+        error.put("extensions", Map.of("code", "INTERNAL_ERROR"));
+        return Map.of("errors", List.of(error));
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String s) {
+            generator.writeString(s);
+        } else if (value instanceof Map<?, ?> map) {
+            generator.writeStartObject();
+            for (var entry : map.entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof List<?> list) {
+            generator.writeStartArray();
+            for (var item : list) {
+                writeValue(generator, item);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Boolean b) {
+            generator.writeBoolean(b);
+        } else if (value instanceof Integer i) {
+            generator.writeNumber(i);
+        } else if (value instanceof Long l) {
+            generator.writeNumber(l);
+        } else if (value instanceof Double d) {
+            generator.writeNumber(d);
+        } else if (value instanceof Float f) {
+            generator.writeNumber(f);
+        } else if (value instanceof BigDecimal d) {
+            generator.writeNumber(d);
+        } else if (value instanceof BigInteger i) {
+            generator.writeNumber(i);
+        } else {
+            // Custom scalars and anything else Jackson knows how to handle
+            generator.writeObject(value);
+        }
+    }
+
+    // Thrown once by LimitedOutputStream to stop the serialization, without a stack trace
+    private static final class LimitExceededException extends IOException {
+        private LimitExceededException() {
+            super("Response is larger than the limit");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    // Writes to the target and counts, failing the write that crosses the limit and ignoring any after it
+    private static final class LimitedOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final long limit;
+        private long count;
+
+        private LimitedOutputStream(OutputStream target, long limit) {
+            this.target = target;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (count > limit) {
+                // The generator flushing on close after the limit was crossed
+                return;
+            }
+            count += len;
+            if (count > limit) {
+                throw new LimitExceededException();
+            }
+            target.write(b, off, len);
+        }
+    }
+
+    // Counts the field names written while counting is on
+    private static final class FieldCounter extends JsonGeneratorDelegate {
+        private boolean counting;
+        private long fields;
+
+        private FieldCounter(JsonGenerator delegate) {
+            super(delegate, false);
+        }
+
+        @Override
+        public void writeFieldName(String name) throws IOException {
+            if (counting) {
+                fields++;
+            }
+            super.writeFieldName(name);
+        }
+
+        @Override
+        public void writeFieldName(SerializableString name) throws IOException {
+            if (counting) {
+                fields++;
+            }
+            super.writeFieldName(name);
+        }
+    }
+}
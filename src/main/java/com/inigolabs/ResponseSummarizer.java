@@ -0,0 +1,282 @@
+package com.inigolabs;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import graphql.ExecutionResult;
+
+/**
+ * Reduces a large GraphQL response to what Inigo analytics use: its errors and extensions, with
+ * the size of the response and the number of fields in its data added under
+ * extensions.responseSummary, e.g. {"errors":[...],"extensions":{"responseSummary":{"bytes":8388608,"dataFields":120000}}}.
+ * When the response was only serialized up to the summary threshold, the summary also has
+ * "truncated":true and its bytes and dataFields are lower bounds.
+ *
+ * A serialized response is scanned with a streaming parser that copies errors and extensions
+ * and skips over everything else, so memory is bounded by the summary, not the response. For
+ * a batch of @defer/@stream payloads the errors of each payload are collected as well.
+ */
+public final class ResponseSummarizer {
+    public static final String SUMMARY_EXTENSION = "responseSummary";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = MAPPER.getFactory().copy()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private ResponseSummarizer() { }
+
+    /**
+     * Summarizes a serialized response.
+     *
+     * @param response The response JSON as UTF-8 bytes.
+     * @return A buffer holding the JSON summary, owned by the caller.
+     */
+    public static NativeBuffer Summarize(byte[] response) throws IOException {
+        return summarize(response, true);
+    }
+
+    /**
+     * Reduces a serialized response to its errors and extensions, for a response whose data is not reported.
+     *
+     * @param response The response JSON as UTF-8 bytes.
+     * @return A buffer holding the JSON envelope, owned by the caller.
+     */
+    public static NativeBuffer Envelope(byte[] response) throws IOException {
+        return summarize(response, false);
+    }
+
+    /**
+     * Returns whether a serialized response has top-level errors, skipping over its data.
+     *
+     * @param response The response JSON as UTF-8 bytes.
+     * @return true if the response has errors or cannot be read.
+     */
+    public static boolean HasErrors(byte[] response) {
+        try (var parser = FACTORY.createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return true;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.currentName();
+                var token = parser.nextToken();
+                if (name.equals("errors")) {
+                    return token == JsonToken.START_ARRAY && parser.nextToken() != JsonToken.END_ARRAY;
+                }
+                parser.skipChildren();
+            }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static NativeBuffer summarize(byte[] response, boolean summary) throws IOException {
+        var errors = new TokenBuffer(MAPPER, false);
+        var errorCount = 0;
+        TokenBuffer extensions = null;
+        Boolean hasNext = null;
+        long fields = 0;
+
+        errors.writeStartArray();
+        try (var parser = FACTORY.createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.currentName();
+                var token = parser.nextToken();
+                switch (name) {
+                    case "errors" -> errorCount += copyItems(parser, errors);
+                    case "extensions" -> {
+                        extensions = new TokenBuffer(parser);
+                        extensions.copyCurrentStructure(parser);
+                    }
+                    case "hasNext" -> hasNext = token == JsonToken.VALUE_TRUE;
+                    case "incremental" -> {
+                        // Each payload is a response of its own, with errors and data or items
+                        if (token != JsonToken.START_ARRAY) {
+                            fields += countFields(parser);
+                            break;
+                        }
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                var payloadField = parser.currentName();
+                                parser.nextToken();
+                                if (payloadField.equals("errors")) {
+                                    errorCount += copyItems(parser, errors);
+                                } else {
+                                    fields += countFields(parser);
+                                }
+                            }
+                        }
+                    }
+                    default -> fields += countFields(parser);
+                }
+            }
+        }
+        errors.writeEndArray();
+
+        var buffer = new NativeBuffer(NativeMemoryPool.Default, 1024);
+        try (var generator = FACTORY.createGenerator(buffer)) {
+            generator.writeStartObject();
+            if (errorCount > 0) {
+                generator.writeFieldName("errors");
+                errors.serialize(generator);
+            }
+            if (summary || extensions != null) {
+                generator.writeFieldName("extensions");
+                generator.writeStartObject();
+                if (extensions != null) {
+                    copyFields(extensions.asParser(), generator);
+                }
+                if (summary) {
+                    writeSummary(generator, response.length, fields, false);
+                }
+                generator.writeEndObject();
+            }
+            if (hasNext != null) {
+                generator.writeBooleanField("hasNext", hasNext);
+            }
+            generator.writeEndObject();
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        return buffer;
+    }
+
+    /**
+     * Summarizes an execution result, measuring it with a serialization that keeps nothing.
+     *
+     * @param result The execution result.
+     * @return A buffer holding the JSON summary, owned by the caller.
+     */
+    public static NativeBuffer Summarize(ExecutionResult result) throws IOException {
+        return Summarize(result, ResponseSerializer.Measure(result));
+    }
+
+    /**
+     * Summarizes an execution result already measured by {@link ResponseSerializer#Serialize(ExecutionResult, long)}.
+     *
+     * @param result The execution result.
+     * @param measured The measurement, marked truncated in the summary if serialization stopped at the limit.
+     * @return A buffer holding the JSON summary, owned by the caller.
+     */
+    public static NativeBuffer Summarize(ExecutionResult result, ResponseSerializer.Measured measured) throws IOException {
+        return summarize(result, measured.Bytes(), measured.DataFields(), measured.Truncated());
+    }
+
+    /**
+     * Summarizes an execution result of a known size.
+     *
+     * @param result The execution result.
+     * @param bytes The serialized size of the response.
+     * @param dataFields The number of field names in the response data.
+     * @return A buffer holding the JSON summary, owned by the caller.
+     */
+    public static NativeBuffer Summarize(ExecutionResult result, long bytes, long dataFields) throws IOException {
+        return summarize(result, bytes, dataFields, false);
+    }
+
+    private static NativeBuffer summarize(ExecutionResult result, long bytes, long dataFields, boolean truncated) throws IOException {
+        var buffer = new NativeBuffer(NativeMemoryPool.Default, 1024);
+        try (var generator = FACTORY.createGenerator(buffer)) {
+            generator.writeStartObject();
+            var errors = result.getErrors();
+            if (errors != null && !errors.isEmpty()) {
+                generator.writeFieldName("errors");
+                ResponseSerializer.WriteErrors(generator, errors);
+            }
+            generator.writeFieldName("extensions");
+            generator.writeStartObject();
+            if (result.getExtensions() != null) {
+                for (var entry : result.getExtensions().entrySet()) {
+                    if (!SUMMARY_EXTENSION.equals(entry.getKey())) {
+                        generator.writeFieldName(String.valueOf(entry.getKey()));
+                        ResponseSerializer.WriteValue(generator, entry.getValue());
+                    }
+                }
+            }
+            writeSummary(generator, bytes, dataFields, truncated);
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        return buffer;
+    }
+
+    private static void writeSummary(JsonGenerator generator, long bytes, long fields, boolean truncated) throws IOException {
+        generator.writeFieldName(SUMMARY_EXTENSION);
+        generator.writeStartObject();
+        generator.writeNumberField("bytes", bytes);
+        generator.writeNumberField("dataFields", fields);
+        if (truncated) {
+            generator.writeBooleanField("truncated", true);
+        }
+        generator.writeEndObject();
+    }
+
+    // Copies the elements of the array at the current token, or skips a value that is not an array
+    private static int copyItems(JsonParser parser, TokenBuffer target) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return 0;
+        }
+        var count = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            target.copyCurrentStructure(parser);
+            count++;
+        }
+        return count;
+    }
+
+    // Copies the fields of the object at the start of the parser, dropping a summary already present
+    private static void copyFields(JsonParser parser, JsonGenerator generator) throws IOException {
+        try (parser) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.currentName();
+                parser.nextToken();
+                if (SUMMARY_EXTENSION.equals(name)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                generator.writeFieldName(name);
+                generator.copyCurrentStructure(parser);
+            }
+        }
+    }
+
+    // Counts the field names in the value at the current token, leaving the parser at its end
+    private static long countFields(JsonParser parser) throws IOException {
+        if (!parser.currentToken().isStructStart()) {
+            return 0;
+        }
+        long fields = 0;
+        var depth = 1;
+        while (depth > 0) {
+            var token = parser.nextToken();
+            if (token == null) {
+                throw new IOException("Unexpected end of response");
+            }
+            if (token == JsonToken.FIELD_NAME) {
+                fields++;
+            } else if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,235 @@
+package com.inigolabs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches a schema file, or a directory of *.graphql and *.graphqls files, and pushes changes
+ * to every instance of an {@link InstancePool} from a background thread.
+ *
+ * Bursts of file events are debounced into a single reload, and an update is only sent to the
+ * native engine when the SHA-256 of the content has changed. Any event in the watched directory
+ * triggers a check, so atomic renames and Kubernetes ConfigMap symlink swaps are picked up too.
+ *
+ * {@link #Start()} compares the files with the schema the instances were created with and pushes
+ * them if they differ.
+ */
+public final class SchemaReloader implements AutoCloseable {
+    public record Stats(
+        long Reloads,
+        long Unchanged,
+        long Failures,
+        long LastReloadNanos,
+        long TotalReloadNanos
+    ) {}
+
+    // Pushes a schema to the instances, throwing if it was not accepted
+    @FunctionalInterface
+    public interface Updater {
+        void Update(byte[] schema) throws IOException;
+    }
+
+    private final Path path;
+    private final Updater updater;
+    private final Duration debounce;
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong lastReloadNanos = new AtomicLong();
+    private final AtomicLong totalReloadNanos = new AtomicLong();
+    private WatchService watcher;
+    private Thread thread;
+    private byte[] hash;
+
+    public SchemaReloader(Inigo.Config config, InstancePool instances) {
+        this(Path.of(config.SchemaPath), config.Schema, updaterOf(instances), Duration.ofMillis(config.SchemaReloadDebounceMillis));
+    }
+
+    /**
+     * Creates a schema reloader. Call {@link #Start()} to begin watching.
+     *
+     * @param path A schema file or a directory of schema files.
+     * @param schema The schema the instances were created with, null or empty if none.
+     * @param updater Pushes a changed schema to the instances.
+     * @param debounce How long the files must stay unchanged before a reload.
+     */
+    public SchemaReloader(Path path, String schema, Updater updater, Duration debounce) {
+        this.path = path.toAbsolutePath();
+        this.updater = updater;
+        this.debounce = debounce;
+        this.hash = schema != null && !schema.isEmpty() ? sha256(schema.getBytes(StandardCharsets.UTF_8)) : null;
+    }
+
+    /**
+     * Pushes the schema files if they differ from the schema the instances were created with,
+     * then starts watching for changes.
+     *
+     * @throws IOException If the watched directory cannot be registered.
+     */
+    public synchronized void Start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        var directory = Files.isDirectory(path) ? path : path.getParent();
+        watcher = directory.getFileSystem().newWatchService();
+        directory.register(watcher,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+
+        Reload();
+        thread = Thread.ofPlatform().daemon(true).name("inigo-schema-reload").start(this::watch);
+    }
+
+    /**
+     * Reads the schema and updates every instance if its content has changed.
+     *
+     * @return true if the instances were updated, false if the schema is unchanged or the update failed.
+     */
+    public synchronized boolean Reload() {
+        var event = new InigoEvents.SchemaReload();
+        event.begin();
+        var start = System.nanoTime();
+
+        try {
+            var schema = read(files());
+            event.bytes = schema.length;
+            var newHash = sha256(schema);
+            if (Arrays.equals(newHash, hash)) {
+                unchanged.increment();
+                return false;
+            }
+            event.changed = true;
+            if (schema.length == 0) {
+                throw new IOException("schema is empty");
+            }
+
+            updater.Update(schema);
+            event.updated = true;
+
+            // Only a schema every instance accepted counts as current, a failed one is retried on the next change
+            hash = newHash;
+            var elapsed = System.nanoTime() - start;
+            reloads.increment();
+            lastReloadNanos.set(elapsed);
+            totalReloadNanos.addAndGet(elapsed);
+            System.out.println("Inigo schema reloaded from " + path + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+            return true;
+        } catch (Exception e) {
+            failures.increment();
+            System.err.println("ERROR: Failed to reload schema " + path + ": " + e.getMessage());
+            return false;
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the reload counters.
+     *
+     * @return The current reload statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            reloads.sum(),
+            unchanged.sum(),
+            failures.sum(),
+            lastReloadNanos.get(),
+            totalReloadNanos.get()
+        );
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            System.err.println("ERROR: Failed to close schema watcher: " + e.getMessage());
+        }
+        thread.interrupt();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                var key = watcher.take();
+                key.pollEvents();
+                key.reset();
+
+                // Wait until the files have been quiet for the debounce period
+                while ((key = watcher.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                Reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private List<Path> files() throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (var stream = Files.list(path)) {
+            return stream
+                .filter(file -> {
+                    var name = file.getFileName().toString();
+                    return (name.endsWith(".graphql") || name.endsWith(".graphqls")) && Files.isRegularFile(file);
+                })
+                .sorted()
+                .toList();
+        }
+    }
+
+    // Reads the schema files, concatenated with a newline between files
+    private static byte[] read(List<Path> files) throws IOException {
+        if (files.size() == 1) {
+            return Files.readAllBytes(files.get(0));
+        }
+        var schema = new ByteArrayOutputStream();
+        for (int i = 0; i < files.size(); i++) {
+            if (i > 0) {
+                schema.write('\n');
+            }
+            schema.write(Files.readAllBytes(files.get(i)));
+        }
+        return schema.toByteArray();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static Updater updaterOf(InstancePool instances) {
+        return schema -> {
+            if (!instances.UpdateSchema(schema)) {
+                var error = Foreign.CheckLastError();
+                throw new IOException(error != null ? error : "update_schema returned false");
+            }
+        };
+    }
+}
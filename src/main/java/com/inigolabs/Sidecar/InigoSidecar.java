@@ -0,0 +1,303 @@
+package com.inigolabs.Sidecar;
+
+import com.inigolabs.Inigo;
+import com.inigolabs.InigoEngine;
+import com.inigolabs.NativePayload;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Reverse proxy that puts Inigo in front of any GraphQL service, whatever it is written in.
+ *
+ * GraphQL POST requests go through ProcessRequest. A request that Inigo blocks is answered with
+ * the Inigo response; any other request is forwarded to the upstream service and its response
+ * is reported to Inigo. All other requests are forwarded as they are. Each exchange runs on its
+ * own virtual thread, and upstream connections are kept alive and reused by the HTTP client.
+ *
+ * The request body is handed to Inigo as it arrived, since a GraphQL POST body already is the
+ * envelope ProcessRequest expects. The upstream response is reported as it arrived, subject to
+ * response sampling, including a non-2xx response that carries a GraphQL body, and a blocked
+ * request is answered with the Inigo output as it was produced. If Inigo fails, the request is
+ * forwarded without it.
+ *
+ * Run standalone with {@link #main(String[])}, configured through the environment.
+ */
+public final class InigoSidecar implements AutoCloseable {
+    public static class Config {
+        public int Port = 8080;
+        public String Upstream = "http://localhost:4000"; // base URL, request paths are appended
+        public String GraphQLPath = "/graphql"; // POST requests to this path go through Inigo
+        public long UpstreamTimeoutMillis = 30000; // connect and response timeout
+        public int MaxRequestBytes = 8 * 1024 * 1024; // larger requests are rejected with 413
+        public int Backlog = 1024; // pending connections, 0 = system default
+        public long ShutdownTimeoutMillis = 10000; // time allowed for in-flight exchanges to finish
+    }
+
+    public record Stats(
+        long Requests,
+        long Blocked,
+        long Forwarded,
+        long UpstreamFailures,
+        long InigoFailures,
+        long Rejected
+    ) {}
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] BAD_GATEWAY = "{\"errors\":[{\"message\":\"Upstream unavailable\",\"extensions\":{\"code\":\"BAD_GATEWAY\"}}]}".getBytes(StandardCharsets.UTF_8);
+    // Connection-level headers and headers the HTTP client sets itself
+    private static final Set<String> HOP_BY_HOP_HEADERS = Set.of(
+        "connection", "content-length", "expect", "host", "keep-alive", "proxy-authenticate",
+        "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade");
+
+    private final Config config;
+    private final InigoEngine engine;
+    private final URI upstream;
+    private final Duration upstreamTimeout;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient client;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder upstreamFailures = new LongAdder();
+    private final LongAdder inigoFailures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private HttpServer server;
+
+    /**
+     * Creates a sidecar. Call {@link #Start()} to begin serving.
+     *
+     * @param config The proxy configuration.
+     * @param engine The Inigo engine requests go through, closed with the sidecar.
+     */
+    public InigoSidecar(Config config, InigoEngine engine) {
+        this.config = config;
+        this.engine = engine;
+        this.upstream = URI.create(config.Upstream.endsWith("/") ? config.Upstream.substring(0, config.Upstream.length() - 1) : config.Upstream);
+        this.upstreamTimeout = Duration.ofMillis(config.UpstreamTimeoutMillis);
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(upstreamTimeout)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .executor(executor)
+            .build();
+    }
+
+    /**
+     * Binds the port and starts serving.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    public synchronized void Start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(config.Port), config.Backlog);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the port the sidecar listens on, which differs from the configured port when that is 0.
+     *
+     * @return The bound port, or -1 if the sidecar is not started.
+     */
+    public synchronized int Port() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    /**
+     * Returns a snapshot of the proxy counters.
+     *
+     * @return The current proxy statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            requests.sum(),
+            blocked.sum(),
+            forwarded.sum(),
+            upstreamFailures.sum(),
+            inigoFailures.sum(),
+            rejected.sum()
+        );
+    }
+
+    /**
+     * Stops accepting connections, waits for in-flight exchanges, then shuts down the engine.
+     */
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop((int) Math.ceil(config.ShutdownTimeoutMillis / 1000.0));
+            server = null;
+        }
+        engine.close();
+        client.close();
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        InigoEngine.Request request = null;
+        try (exchange) {
+            requests.increment();
+            var body = exchange.getRequestBody().readNBytes(config.MaxRequestBytes + 1);
+            if (body.length > config.MaxRequestBytes) {
+                rejected.increment();
+                exchange.sendResponseHeaders(413, -1);
+                return;
+            }
+
+            if (isGraphQL(exchange, body)) {
+                request = processRequest(exchange, body);
+            }
+            if (request != null && request.IsBlocked()) {
+                blocked.increment();
+                var output = request.Output();
+                respond(exchange, request.StatusCode(), output != null
+                    ? output.getBytes(StandardCharsets.UTF_8) : MAPPER.writeValueAsBytes(request.Result().toSpecification()));
+                return;
+            }
+
+            HttpResponse<byte[]> response;
+            try {
+                response = forward(exchange, body);
+            } catch (IOException e) {
+                upstreamFailures.increment();
+                if (request != null) {
+                    request.ReportError("Upstream failed: " + e.getMessage());
+                }
+                respond(exchange, 502, BAD_GATEWAY);
+                return;
+            }
+            forwarded.increment();
+
+            if (request != null) {
+                if (response.statusCode() / 100 == 2 || isJson(response)) {
+                    request.Report(response.body());
+                } else {
+                    request.ReportError("Upstream responded with status " + response.statusCode());
+                }
+            }
+
+            response.headers().map().forEach((name, values) -> {
+                if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase())) {
+                    exchange.getResponseHeaders().put(name, values);
+                }
+            });
+            exchange.sendResponseHeaders(response.statusCode(), response.body().length > 0 ? response.body().length : -1);
+            exchange.getResponseBody().write(response.body());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Closes the request without response data if it was not reported, e.g. the client went away
+            if (request != null) {
+                request.close();
+            }
+        }
+    }
+
+    // Forwards the request without Inigo if Inigo fails, the service must not go down with it
+    private InigoEngine.Request processRequest(HttpExchange exchange, byte[] body) {
+        try {
+            return engine.ProcessRequest(null, exchange.getRequestHeaders(), NativePayload.Of(body), null);
+        } catch (RuntimeException e) {
+            inigoFailures.increment();
+            System.err.println("ERROR: Failed to process request, forwarding it without Inigo: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // A GraphQL service answers errors with a JSON body, e.g. application/graphql-response+json with a 4xx status
+    private static boolean isJson(HttpResponse<byte[]> response) {
+        return response.body().length > 0
+            && response.headers().firstValue("Content-Type").map(type -> type.contains("json")).orElse(false);
+    }
+
+    private boolean isGraphQL(HttpExchange exchange, byte[] body) {
+        return body.length > 0
+            && "POST".equals(exchange.getRequestMethod())
+            && config.GraphQLPath.equals(exchange.getRequestURI().getPath());
+    }
+
+    private HttpResponse<byte[]> forward(HttpExchange exchange, byte[] body) throws IOException, InterruptedException {
+        var uri = exchange.getRequestURI();
+        var target = URI.create(upstream + uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+        var builder = HttpRequest.newBuilder(target)
+            .timeout(upstreamTimeout)
+            .method(exchange.getRequestMethod(), body.length > 0 ? HttpRequest.BodyPublishers.ofByteArray(body) : HttpRequest.BodyPublishers.noBody());
+        exchange.getRequestHeaders().forEach((name, values) -> {
+            if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase())) {
+                values.forEach(value -> builder.header(name, value));
+            }
+        });
+        return client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Runs the sidecar until the process is stopped. Configured through the environment:
+     * INIGO_SERVICE_TOKEN, INIGO_SCHEMA_PATH (a schema file or a directory of .graphql files,
+     * watched for changes), INIGO_SIDECAR_PORT, INIGO_SIDECAR_UPSTREAM and INIGO_SIDECAR_PATH.
+     * Run with -Dsun.net.httpserver.nodelay=true so that responses do not wait on Nagle's algorithm.
+     */
+    public static void main(String[] args) throws IOException {
+        var inigoConfig = new Inigo.Config(env("INIGO_SERVICE_TOKEN", ""));
+        inigoConfig.Name += " : sidecar";
+        var schemaPath = env("INIGO_SCHEMA_PATH", null);
+        if (schemaPath != null) {
+            inigoConfig.Schema = readSchema(Path.of(schemaPath));
+            inigoConfig.SchemaPath = schemaPath;
+        }
+
+        var config = new Config();
+        config.Port = Integer.parseInt(env("INIGO_SIDECAR_PORT", String.valueOf(config.Port)));
+        config.Upstream = env("INIGO_SIDECAR_UPSTREAM", config.Upstream);
+        config.GraphQLPath = env("INIGO_SIDECAR_PATH", config.GraphQLPath);
+
+        var sidecar = new InigoSidecar(config, new InigoEngine(inigoConfig));
+        Runtime.getRuntime().addShutdownHook(new Thread(sidecar::close, "inigo-sidecar-shutdown"));
+        sidecar.Start();
+        System.out.println("Inigo sidecar listening on port " + sidecar.Port() + ", forwarding to " + config.Upstream);
+    }
+
+    private static String env(String name, String defaultValue) {
+        var value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+
+    private static String readSchema(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Files.readString(path);
+        }
+        try (var files = Files.list(path)) {
+            var schema = new StringBuilder();
+            for (var file : files.filter(f -> f.toString().endsWith(".graphql") || f.toString().endsWith(".graphqls")).sorted().collect(Collectors.toList())) {
+                schema.append(Files.readString(file)).append('\n');
+            }
+            return schema.toString();
+        }
+    }
+}
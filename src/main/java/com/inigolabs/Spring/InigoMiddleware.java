@@ -1,94 +1,461 @@
 package com.inigolabs.Spring;
 
+import com.inigolabs.BoundedExecutor;
+import com.inigolabs.FlushScheduler;
 import com.inigolabs.Foreign;
 import com.inigolabs.Inigo;
+import com.inigolabs.InigoEngine;
+import com.inigolabs.NativeCallGuard;
+import com.inigolabs.PersistedQueryCache;
+import com.inigolabs.RequestEncoder;
+import com.inigolabs.RequestHandles;
+import com.inigolabs.ResponseReporter;
+import com.inigolabs.SchemaReloader;
+import com.inigolabs.StreamReporter;
+import com.inigolabs.StringInterner;
+import com.inigolabs.SubgraphProcessor;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.graphql.server.WebGraphQlInterceptor;
 import org.springframework.graphql.server.WebGraphQlRequest;
 import org.springframework.graphql.server.WebGraphQlResponse;
+import org.springframework.graphql.support.DefaultExecutionGraphQlResponse;
+
+import graphql.ExecutionResult;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
 
 import reactor.core.publisher.Mono;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Inigo for Spring GraphQL. The request path is an {@link InigoEngine}; the middleware adds
+ * automatic persisted queries, the Spring lifecycle and, with RequestProcessWorkers, a bounded
+ * executor that keeps ProcessRequest off the calling thread within a latency budget.
+ */
+public class InigoMiddleware implements WebGraphQlInterceptor, SmartLifecycle, DisposableBean {
+    private static final int LIFECYCLE_PHASE = SmartLifecycle.DEFAULT_PHASE - 4096; // stop after the web server
 
-public class InigoMiddleware implements WebGraphQlInterceptor {
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final long instanceHandle;
+    private final CompletableFuture<Engine> engine;
+    private final Inigo.StartupPolicy startupPolicy;
+    private final Duration startupWait;
+    private final LongAdder passedThrough = new LongAdder();
+    private final BoundedExecutor requestExecutor;
+    private final Duration nativeCallBudget;
+    private final NativeCallGuard.Policy nativeCallPolicy;
+    private final Duration shutdownTimeout;
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+    private volatile boolean running;
 
     public InigoMiddleware(Inigo.Config config) {
-        instanceHandle = initialize(config, false);
+        this(config, false);
     }
 
     public InigoMiddleware(Inigo.Config config, Boolean downloadLibrary) {
-        instanceHandle = initialize(config, downloadLibrary);
+        this(config, () -> initialize(config, downloadLibrary));
+    }
+
+    /**
+     * Creates a middleware on an engine that already exists, e.g. one built on test natives.
+     *
+     * @param config The Inigo configuration, for the settings the middleware itself uses.
+     * @param engine The engine.
+     * @param persistedQueries The persisted query cache, or null if persisted queries are not resolved.
+     */
+    public InigoMiddleware(Inigo.Config config, InigoEngine engine, PersistedQueryCache persistedQueries) {
+        this(config, () -> new Engine(engine, persistedQueries));
+    }
+
+    private InigoMiddleware(Inigo.Config config, Supplier<Engine> initializer) {
+        startupPolicy = config.StartupPolicy;
+        startupWait = Duration.ofMillis(Math.max(0, config.StartupWaitMillis));
+        requestExecutor = config.RequestProcessWorkers > 0
+            ? new BoundedExecutor("inigo-request", config.RequestProcessWorkers, config.RequestProcessQueueSize, config.RequestProcessVirtualThreads) : null;
+        nativeCallBudget = config.NativeCallMaxLimit > 0 ? Duration.ofMillis(config.NativeCallBudgetMillis) : Duration.ZERO;
+        nativeCallPolicy = config.NativeCallPolicy;
+        shutdownTimeout = Duration.ofMillis(Math.max(0, config.ShutdownTimeoutMillis));
+
+        if (config.AsyncStartup) {
+            // Library loading and schema parsing stay off the Spring startup path
+            engine = CompletableFuture.supplyAsync(initializer,
+                task -> Thread.ofPlatform().daemon(true).name("inigo-startup").start(task));
+            engine.whenComplete((ready, error) -> {
+                if (error != null) {
+                    System.err.println("ERROR: Failed to start Inigo, requests pass through: " + error.getMessage());
+                }
+            });
+        } else {
+            engine = CompletableFuture.completedFuture(initializer.get());
+        }
     }
 
     public InigoMiddleware(String token, String schema) {
-        instanceHandle = initialize(new Inigo.Config(token, schema), false);
+        this(new Inigo.Config(token, schema), false);
     }
 
     public InigoMiddleware(String token, String schema, Boolean downloadLibrary) {
-        instanceHandle = initialize(new Inigo.Config(token, schema), downloadLibrary);
+        this(new Inigo.Config(token, schema), downloadLibrary);
     }
 
-    private long initialize(Inigo.Config config, Boolean downloadLibrary) {
+    private static Engine initialize(Inigo.Config config, Boolean downloadLibrary) {
         if (downloadLibrary) {
             Inigo.DownloadLibrary();
         }
         config.Name += " : spring";
-        return Foreign.Create(config);
+        var engine = new InigoEngine(config);
+        var persistedQueries = config.PersistedQueryCacheSize > 0 && Foreign.IsPersistingEnabled(engine.Instances().Primary())
+            ? new PersistedQueryCache(config.PersistedQueryCacheSize) : null;
+        return new Engine(engine, persistedQueries);
+    }
+
+    /**
+     * Returns whether the native engine is loaded and ready to process requests.
+     */
+    public boolean isReady() {
+        return readyEngine() != null;
+    }
+
+    /**
+     * Returns a future that completes when the native engine is ready, or fails if it cannot start.
+     */
+    public CompletableFuture<Void> whenReady() {
+        return engine.thenApply(ready -> null);
+    }
+
+    /**
+     * Returns the number of requests passed through without Inigo because the engine was not ready.
+     */
+    public long getPassThroughCount() {
+        return passedThrough.sum();
+    }
+
+    /**
+     * Returns the engine statistics, or null while the engine is not ready.
+     */
+    public InigoEngine.Stats getEngineStats() {
+        var ready = readyEngine();
+        return ready != null ? ready.engine().GetStats() : null;
+    }
+
+    /**
+     * Returns the number of requests that passed ProcessRequest and have not been reported yet.
+     */
+    public int getInflightCount() {
+        var stats = getEngineStats();
+        return stats != null ? stats.Handles().Live() : 0;
+    }
+
+    /**
+     * Returns the native request handle statistics, including handles reclaimed after a leak,
+     * or null while the engine is not ready.
+     */
+    public RequestHandles.Stats getRequestHandleStats() {
+        var stats = getEngineStats();
+        return stats != null ? stats.Handles() : null;
+    }
+
+    /**
+     * Returns the telemetry flush statistics, or null when flushing is left to the native library.
+     */
+    public FlushScheduler.Stats getFlushStats() {
+        var stats = getEngineStats();
+        return stats != null ? stats.Flush() : null;
+    }
+
+    /**
+     * Returns the request executor statistics, or null when requests are processed inline.
+     */
+    public BoundedExecutor.Stats getRequestExecutorStats() {
+        return requestExecutor != null ? requestExecutor.GetStats() : null;
+    }
+
+    /**
+     * Returns the native call limiter and breaker statistics, or null when native calls are unprotected.
+     */
+    public NativeCallGuard.Stats getNativeCallGuardStats() {
+        var stats = getEngineStats();
+        return stats != null ? stats.Guard() : null;
+    }
+
+    /**
+     * Returns how many requests were assigned to each native instance.
+     */
+    public long[] getInstanceRequestCounts() {
+        var ready = readyEngine();
+        return ready != null ? ready.engine().Instances().SelectedCounts() : new long[0];
+    }
+
+    /**
+     * Returns the processor for subgraph fetches when running as a federation gateway, or null
+     * unless Federation is set or while the engine is not ready.
+     */
+    public SubgraphProcessor getSubgraphProcessor() {
+        var ready = readyEngine();
+        return ready != null ? ready.engine().Subgraphs() : null;
+    }
+
+    /**
+     * Returns the schema reload statistics, or null when the schema is not watched or the engine is not ready.
+     */
+    public SchemaReloader.Stats getSchemaReloadStats() {
+        var stats = getEngineStats();
+        return stats != null ? stats.SchemaReload() : null;
+    }
+
+    /**
+     * Returns the response reporter statistics, or null while the engine is not ready.
+     */
+    public ResponseReporter.Stats getResponseReporterStats() {
+        var stats = getEngineStats();
+        return stats != null ? stats.Reporter() : null;
+    }
+
+    /**
+     * Returns the statistics of subscriptions reported in batches while they run, or null while the engine is not ready.
+     */
+    public StreamReporter.Stats getStreamReporterStats() {
+        var stats = getEngineStats();
+        return stats != null ? stats.Streams() : null;
+    }
+
+    /**
+     * Returns the result string cache counters, or null when the cache is disabled.
+     */
+    public StringInterner.Stats getResultInternerStats() {
+        var stats = getEngineStats();
+        return stats != null ? stats.Interner() : null;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        shutdown(shutdownTimeout);
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return LIFECYCLE_PHASE;
+    }
+
+    @Override
+    public void destroy() {
+        shutdown(shutdownTimeout);
+    }
+
+    /**
+     * Waits for in-flight requests and queued reports, then flushes telemetry and shuts down
+     * the native library. Requests still running at the deadline are closed without response
+     * data. Requests arriving afterwards pass through without Inigo. Only the first call has
+     * an effect.
+     *
+     * @param timeout The maximum time to wait for requests and reports.
+     * @return true if every request and report finished in time, false otherwise.
+     */
+    public boolean shutdown(Duration timeout) {
+        if (!shutdown.compareAndSet(false, true)) {
+            return true;
+        }
+        var deadline = System.nanoTime() + timeout.toNanos();
+
+        // Queued ProcessRequest calls still register their requests as in flight
+        if (requestExecutor != null) {
+            requestExecutor.Shutdown(remaining(deadline));
+        }
+
+        // An engine still starting is shut down once it is ready, before it sees any request
+        var ready = readyEngine();
+        if (ready == null) {
+            engine.thenAccept(started -> started.engine().Shutdown(Duration.ZERO));
+            return true;
+        }
+        return ready.engine().Shutdown(remaining(deadline));
+    }
+
+    private static Duration remaining(long deadline) {
+        return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
     }
-    
+
     @Override
     public Mono<WebGraphQlResponse> intercept(WebGraphQlRequest gqlReq, Chain chain) {
-        var query = gqlReq.getDocument().getBytes();
-        // var variables = gqlReq.getVariables();
+        if (shutdown.get()) {
+            return passThrough(gqlReq, chain);
+        }
+
+        var ready = readyEngine();
+        if (ready != null) {
+            return intercept(ready, gqlReq, chain);
+        }
+        if (engine.isDone() || startupPolicy == Inigo.StartupPolicy.PASS_THROUGH) {
+            return passThrough(gqlReq, chain);
+        }
+
+        // Wait for the engine without blocking the calling thread, other requests share the future.
+        // Waiters resume on Reactor's elastic threads rather than all on the thread that started the
+        // engine, execution may block, e.g. resolvers using JDBC on WebMVC.
+        return Mono.fromFuture(engine, true)
+            .timeout(startupWait)
+            .map(Optional::of)
+            .onErrorReturn(Optional.empty())
+            .publishOn(Schedulers.boundedElastic())
+            .flatMap(started -> started.isPresent() ? intercept(started.get(), gqlReq, chain) : passThrough(gqlReq, chain));
+    }
 
-        var request = Foreign.ProcessRequest(instanceHandle, null, gqlReq.getHeaders(), query);
-        if (request.Output() != null && !request.Output().isEmpty()) {
-            // TODO: Block the request and return the output from Inigo
+    private Mono<WebGraphQlResponse> intercept(Engine engine, WebGraphQlRequest gqlReq, Chain chain) {
+        if (requestExecutor == null) {
+            return proceed(gqlReq, chain, processRequest(engine, gqlReq));
         }
 
-        // TODO: Return response from Inigo if available
-        return chain.next(gqlReq)
-            .doOnSuccess(resp -> {
-                byte[] jres = null;
+        // Keep the native call off the calling thread, e.g. a Netty event loop
+        var outcome = new CompletableFuture<Outcome>();
+        try {
+            requestExecutor.execute(() -> {
                 try {
-                    jres = objectMapper.writeValueAsBytes(resp.toMap());
-                } catch (Exception e) {
-                    var errorResponse = java.util.Map.of(
-                        "errors", java.util.List.of(
-                            java.util.Map.of(
-                                "message", "Failed to serialize response: " + e.getMessage(),
-                                "extensions", java.util.Map.of("code", "INTERNAL_ERROR")
-                            )
-                        )
-                    );
-                    try {
-                        jres = objectMapper.writeValueAsBytes(errorResponse);
-                    } catch (Exception ex) {
-                        System.err.println("ERROR: Failed to serialize error response: " + ex.getMessage());
+                    var result = processRequest(engine, gqlReq);
+                    // The request moved on without it, after the latency budget or a cancel
+                    if (!outcome.complete(result) && result.request() != null) {
+                        result.request().close();
                     }
+                } catch (Throwable e) {
+                    outcome.completeExceptionally(e);
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            outcome.complete(bypassed(gqlReq));
+        }
+
+        if (!nativeCallBudget.isZero()) {
+            outcome.orTimeout(nativeCallBudget.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return Mono.fromFuture(outcome)
+            .onErrorResume(TimeoutException.class, e -> Mono.just(bypassed(gqlReq)))
+            // Execution continues on a Reactor thread, not on the worker that made the native call.
+            // Resolvers may block, so not on the CPU-sized parallel scheduler.
+            .publishOn(Schedulers.boundedElastic())
+            .flatMap(result -> proceed(gqlReq, chain, result));
+    }
+
+    // The request executor is full or the native call overran its budget, Inigo must not become the bottleneck
+    private Outcome bypassed(WebGraphQlRequest gqlReq) {
+        if (nativeCallPolicy == NativeCallGuard.Policy.FAIL_CLOSED) {
+            return new Outcome(null, errorResponse(gqlReq, "Too many requests", "SERVICE_UNAVAILABLE"));
+        }
+        return Outcome.PASS_THROUGH;
+    }
 
-                Foreign.ProcessResponse(instanceHandle, request.Handle(), jres);
+    private Mono<WebGraphQlResponse> passThrough(WebGraphQlRequest gqlReq, Chain chain) {
+        passedThrough.increment();
+        return chain.next(gqlReq);
+    }
+
+    private Engine readyEngine() {
+        return engine.isDone() && !engine.isCompletedExceptionally() ? engine.join() : null;
+    }
+
+    private Outcome processRequest(Engine engine, WebGraphQlRequest gqlReq) {
+        var persistedQueries = engine.persistedQueries();
+        byte[] query;
+        var persistedQueryHash = persistedQueries != null ? PersistedQueryCache.HashOf(gqlReq.getExtensions()) : null;
+        if (persistedQueryHash == null) {
+            query = gqlReq.getDocument().getBytes(StandardCharsets.UTF_8);
+        } else if (PersistedQueryCache.IsHashOnly(gqlReq.getDocument())) {
+            var entry = persistedQueries.Resolve(persistedQueryHash);
+            if (entry == null) {
+                return new Outcome(null, errorResponse(gqlReq, PersistedQueryCache.NOT_FOUND, PersistedQueryCache.NOT_FOUND_CODE));
+            }
+            gqlReq.configureExecutionInput((input, builder) -> builder.query(entry.Query()).build());
+            query = entry.Bytes();
+        } else {
+            var entry = persistedQueries.Register(persistedQueryHash, gqlReq.getDocument());
+            if (entry == null) {
+                return new Outcome(null, errorResponse(gqlReq, PersistedQueryCache.HASH_MISMATCH, "BAD_REQUEST"));
+            }
+            query = entry.Bytes();
+        }
+
+        var input = RequestEncoder.Encode(query, gqlReq.getOperationName(), gqlReq.getVariables(), gqlReq.getExtensions());
+        var request = engine.engine().ProcessRequest(gqlReq.getId(), gqlReq.getHeaders(), input, gqlReq.getOperationName());
+        if (request == null) {
+            return Outcome.PASS_THROUGH;
+        }
+        // Blocked requests never reach the resolvers, Inigo has already closed the request
+        if (request.IsBlocked()) {
+            return new Outcome(null, response(gqlReq, request.Result()));
+        }
+        return new Outcome(request, null);
+    }
+
+    private Mono<WebGraphQlResponse> proceed(WebGraphQlRequest gqlReq, Chain chain, Outcome outcome) {
+        if (outcome.response() != null) {
+            return Mono.just(outcome.response());
+        }
+        var request = outcome.request();
+        if (request == null) {
+            return passThrough(gqlReq, chain);
+        }
+
+        // Whoever completes the request first closes it: the response, a cancel, shutdown or the cleaner
+        return chain.next(gqlReq)
+            .map(resp -> {
+                // A subscription, its events are reported in batches as they are delivered
+                if (!(resp.getExecutionResult().getData() instanceof Publisher<?>)) {
+                    return resp;
+                }
+                var tapped = request.ReportStream(resp.getExecutionResult());
+                return resp.transform(builder -> builder.data(tapped.getData()));
             })
-            .doOnError(error -> {
-                byte[] jres = null;
-                try {
-                    var errorResponse = java.util.Map.of(
-                        "errors", java.util.List.of(
-                            java.util.Map.of(
-                                "message", error.getMessage() != null ? error.getMessage() : "Unknown error",
-                                "extensions", java.util.Map.of("code", "INTERNAL_ERROR")
-                            )
-                        )
-                    );
-                    jres = objectMapper.writeValueAsBytes(errorResponse);
-                } catch (Exception e) {
-                    System.err.println("ERROR: Failed to serialize error response: " + e.getMessage());
+            .doOnSuccess(resp -> {
+                if (resp == null) {
+                    request.close();
+                } else if (!(resp.getExecutionResult().getData() instanceof Publisher<?>)) {
+                    request.Report(resp.getExecutionResult());
+                }
+            })
+            .doOnError(error -> request.ReportError(error.getMessage()))
+            .doFinally(signal -> {
+                // Cancelled, e.g. the client disconnected or a timeout upstream
+                if (signal == SignalType.CANCEL) {
+                    request.close();
                 }
-
-                Foreign.ProcessResponse(instanceHandle, request.Handle(), jres);
             });
     }
+
+    private static WebGraphQlResponse response(WebGraphQlRequest gqlReq, ExecutionResult result) {
+        return new WebGraphQlResponse(new DefaultExecutionGraphQlResponse(gqlReq.toExecutionInput(), result));
+    }
+
+    private static WebGraphQlResponse errorResponse(WebGraphQlRequest gqlReq, String message, String code) {
+        return response(gqlReq, InigoEngine.ErrorResult(message, code));
+    }
+
+    // Started in the background unless AsyncStartup is off, with the persisted queries of its instances
+    private record Engine(InigoEngine engine, PersistedQueryCache persistedQueries) {}
+
+    // Result of the request side: a request to continue with, a response to return as is, or neither
+    // to pass the request through without Inigo
+    private record Outcome(InigoEngine.Request request, WebGraphQlResponse response) {
+        static final Outcome PASS_THROUGH = new Outcome(null, null);
+    }
 }
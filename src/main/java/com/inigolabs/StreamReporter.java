@@ -0,0 +1,530 @@
+package com.inigolabs;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.incremental.DelayedIncrementalPartialResult;
+import graphql.incremental.IncrementalExecutionResult;
+import graphql.incremental.IncrementalExecutionResultImpl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reports subscription events and @defer/@stream payloads to Inigo while the stream is running,
+ * rather than once it ends, which for a subscription may be never.
+ *
+ * Payloads are serialized as they are emitted and coalesced per stream into batches of the form
+ * {"incremental":[...],"hasNext":...}. A batch is reported when it holds StreamBatchEvents payloads
+ * or StreamBatchMaxBytes bytes, or when the stream ends, so a stream holds at most one partial batch.
+ *
+ * By default the request handle from ProcessRequest stays open until the stream ends, and every
+ * batch is reported against it: each full batch is reduced to its errors and its size, and the
+ * last batch is reported in full together with the errors of the earlier ones and an
+ * extensions.responseSummary of their payload count and bytes. With a {@link Continuation}, the
+ * first batch is reported against the original request and each later one, also flushed once its
+ * oldest payload has waited StreamBatchMillis, against a new request that Inigo counts like any
+ * other request. Batches that cannot be reported are counted and logged. Reporting never alters
+ * what the client receives.
+ *
+ * Continuations and submissions run on the flush timer thread, in batch order, so neither a native
+ * call nor a full report queue holds up the thread emitting the stream. Live streams are tracked
+ * weakly: a stream whose publisher is abandoned is collected, and its request handle reclaimed.
+ */
+public final class StreamReporter implements AutoCloseable {
+    private static final JsonFactory FACTORY = new ObjectMapper().getFactory();
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+    // Errors kept from the earlier batches of a stream, later ones are only counted
+    private static final int MAX_FOLDED_ERRORS = 100;
+
+    public record Stats(
+        int Live,
+        long Streams,
+        long Events,
+        long Batches,
+        long Summarized,
+        long Skipped,
+        long SkippedEvents
+    ) {}
+
+    // Hands a serialized batch to Inigo, given its instance handle and request handle
+    @FunctionalInterface
+    public interface Sink {
+        void Submit(long instanceHandle, long requestHandle, byte[] batch);
+    }
+
+    // Opens a request handle for the next batch of a stream, 0 if none could be opened
+    @FunctionalInterface
+    public interface Continuation {
+        long Next();
+    }
+
+    private final ResponseSampler sampler;
+    private final Sink sink;
+    private final int batchEvents;
+    private final int batchBytes;
+    private final long batchNanos;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Set<Stream> live = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final LongAdder streams = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder summarized = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder skippedEvents = new LongAdder();
+
+    /**
+     * Creates a stream reporter from the configuration.
+     *
+     * @param config The Inigo configuration.
+     * @param reporter The reporter batches are submitted to.
+     */
+    public StreamReporter(Inigo.Config config, ResponseReporter reporter) {
+        this(new ResponseSampler(config), reporter::SubmitSerialized, config.StreamBatchEvents,
+            config.StreamBatchMaxBytes, Duration.ofMillis(config.StreamBatchMillis));
+    }
+
+    /**
+     * Creates a stream reporter.
+     *
+     * @param sampler Decides which payloads are reported with their data.
+     * @param sink Receives the serialized batches.
+     * @param batchEvents The number of payloads that completes a batch.
+     * @param batchBytes The serialized size that completes a batch.
+     * @param batchDelay The longest a payload waits in a partial batch.
+     */
+    public StreamReporter(ResponseSampler sampler, Sink sink, int batchEvents, int batchBytes, Duration batchDelay) {
+        this.sampler = sampler;
+        this.sink = sink;
+        this.batchEvents = Math.max(1, batchEvents);
+        this.batchBytes = Math.max(1, batchBytes);
+        this.batchNanos = Math.max(0, batchDelay.toNanos());
+        this.timer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("inigo-stream-flush").daemon(true).factory());
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Returns whether an execution result is delivered incrementally: a subscription, whose data
+     * is a publisher of events, or a response with @defer or @stream payloads still to come.
+     *
+     * @param result The execution result.
+     * @return true if the result should be reported through a stream.
+     */
+    public static boolean IsStream(ExecutionResult result) {
+        if (result instanceof IncrementalExecutionResult incremental) {
+            return incremental.hasNext() && incremental.getIncrementalItemPublisher() != null;
+        }
+        return result != null && result.getData() instanceof Publisher<?>;
+    }
+
+    /**
+     * Starts reporting a stream.
+     *
+     * @param handle The handle of the request the stream answers, claimed by the first batch.
+     * @param operationName The operation name, used for sampling, may be null.
+     * @param continuation Opens a request handle for each later batch, or null to report the first batch only.
+     *     Each call counts as a request in Inigo.
+     * @return The stream, which must be completed.
+     */
+    public Stream Open(RequestHandles.Handle handle, String operationName, Continuation continuation) {
+        var stream = new Stream(handle, operationName, continuation);
+        live.add(stream);
+        streams.increment();
+        return stream;
+    }
+
+    /**
+     * Reports an incremental execution result through a stream: the initial payload now, each later
+     * payload as the client receives it.
+     *
+     * @param result The execution result, see {@link #IsStream(ExecutionResult)}.
+     * @param stream The stream to report through.
+     * @return The result to deliver instead, identical apart from its publisher being tapped.
+     */
+    public ExecutionResult Tap(ExecutionResult result, Stream stream) {
+        if (result instanceof IncrementalExecutionResult incremental) {
+            stream.Add(result);
+            return IncrementalExecutionResultImpl.newIncrementalExecutionResult()
+                .from(incremental)
+                .incrementalItemPublisher(stream.Tap(incremental.getIncrementalItemPublisher()))
+                .build();
+        }
+        if (result.getData() instanceof Publisher<?> events) {
+            return result.transform(builder -> builder.data(stream.Tap(events)));
+        }
+        stream.Add(result);
+        stream.Complete();
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the stream counters.
+     *
+     * @return The current stream statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            live.size(),
+            streams.sum(),
+            events.sum(),
+            batches.sum(),
+            summarized.sum(),
+            skipped.sum(),
+            skippedEvents.sum()
+        );
+    }
+
+    /**
+     * Completes every live stream, reporting its partial batch, then stops the flush timer once
+     * the batches already due have been handed over.
+     *
+     * @param timeout The maximum time to wait for the batches.
+     * @return true if every batch was handed over in time, false otherwise.
+     */
+    public boolean Shutdown(Duration timeout) {
+        List<Stream> streams;
+        synchronized (live) {
+            streams = List.copyOf(live);
+        }
+        for (var stream : streams) {
+            stream.Complete();
+        }
+
+        timer.shutdown();
+        try {
+            return timer.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Shuts down, waiting a few seconds at most for the batches already due.
+     */
+    @Override
+    public void close() {
+        Shutdown(CLOSE_TIMEOUT);
+    }
+
+    // Runs on the flush timer, opens the continuation request if there is one and hands the batch over
+    private void submit(long instanceHandle, long requestHandle, Continuation next, byte[] batch, int payloads) {
+        if (next != null) {
+            try {
+                requestHandle = next.Next();
+            } catch (Exception e) {
+                System.err.println("ERROR: Failed to continue stream request: " + e.getMessage());
+            }
+        }
+        if (requestHandle == 0) {
+            skip(payloads);
+            return;
+        }
+        batches.increment();
+        try {
+            sink.Submit(instanceHandle, requestHandle, batch);
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to submit stream batch: " + e.getMessage());
+        }
+    }
+
+    private void skip(int payloads) {
+        skipped.increment();
+        skippedEvents.add(payloads);
+        var count = skipped.sum();
+        if (Long.bitCount(count) == 1) {
+            System.err.println("WARNING: Inigo could not report a stream batch, skipped " + count + " batches so far");
+        }
+    }
+
+    /**
+     * The reporting side of one stream. Payloads are added as they are emitted, from any thread,
+     * and the stream must end with {@link #Complete()} or {@link #Fail(String)}.
+     */
+    public final class Stream {
+        private final RequestHandles.Handle handle;
+        private final String operationName;
+        private final Continuation continuation;
+        private ByteArrayBuilder buffer;
+        private JsonGenerator generator;
+        private int pending;
+        private final List<GraphQLError> batchErrors = new ArrayList<>();
+        private final List<GraphQLError> foldedErrors = new ArrayList<>();
+        private long foldedEvents;
+        private long foldedBytes;
+        private long foldedErrorCount;
+        private boolean reported;
+        private boolean completed;
+        private ScheduledFuture<?> flush;
+
+        private Stream(RequestHandles.Handle handle, String operationName, Continuation continuation) {
+            this.handle = handle;
+            this.operationName = operationName;
+            this.continuation = continuation;
+        }
+
+        /**
+         * Adds a payload to the current batch.
+         *
+         * @param payload An {@link ExecutionResult}, e.g. a subscription event, or a {@link DelayedIncrementalPartialResult}.
+         */
+        public synchronized void Add(Object payload) {
+            if (completed) {
+                return;
+            }
+            events.increment();
+            try {
+                begin();
+                write(payload);
+            } catch (IOException e) {
+                System.err.println("ERROR: Failed to serialize stream payload: " + e.getMessage());
+                discard();
+                return;
+            }
+            pending++;
+            if (continuation == null) {
+                collectErrors(payload);
+            }
+
+            if (pending >= batchEvents || buffer.size() + generator.getOutputBuffered() >= batchBytes) {
+                if (continuation == null) {
+                    fold();
+                } else {
+                    flush(true);
+                }
+            } else if (pending == 1 && batchNanos > 0 && continuation != null) {
+                try {
+                    flush = timer.schedule(this::flushDue, batchNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    flush(true);
+                }
+            }
+        }
+
+        /**
+         * Ends the stream, reporting its partial batch. Only the first call has an effect.
+         */
+        public synchronized void Complete() {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            live.remove(this);
+            flush(false);
+        }
+
+        /**
+         * Ends the stream with an error, reported with the partial batch.
+         *
+         * @param message The failure message.
+         */
+        public synchronized void Fail(String message) {
+            Add(ResponseSerializer.ErrorResponse(message));
+            Complete();
+        }
+
+        /**
+         * Wraps a publisher so that each item it emits is added to this stream, and the stream is
+         * completed when the publisher terminates or its subscriber cancels.
+         *
+         * @param source The publisher of payloads.
+         * @return A publisher emitting the same items and signals as the source.
+         */
+        public <T> Publisher<T> Tap(Publisher<T> source) {
+            return subscriber -> source.subscribe(new Subscriber<T>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscriber.onSubscribe(new Subscription() {
+                        @Override
+                        public void request(long n) {
+                            subscription.request(n);
+                        }
+
+                        @Override
+                        public void cancel() {
+                            subscription.cancel();
+                            Complete();
+                        }
+                    });
+                }
+
+                @Override
+                public void onNext(T item) {
+                    Add(item);
+                    subscriber.onNext(item);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    Fail(error.getMessage() != null ? error.getMessage() : error.getClass().getName());
+                    subscriber.onError(error);
+                }
+
+                @Override
+                public void onComplete() {
+                    Complete();
+                    subscriber.onComplete();
+                }
+            });
+        }
+
+        private void write(Object payload) throws IOException {
+            if (payload instanceof ExecutionResult result) {
+                if (sampler.IsSampled(operationName, result)) {
+                    ResponseSerializer.Write(generator, result);
+                } else {
+                    ResponseSerializer.WriteEnvelope(generator, result);
+                }
+            } else if (payload instanceof DelayedIncrementalPartialResult partial) {
+                ResponseSerializer.WriteValue(generator, partial.toSpecification());
+            } else {
+                ResponseSerializer.WriteValue(generator, payload);
+            }
+        }
+
+        private void collectErrors(Object payload) {
+            if (payload instanceof ExecutionResult result) {
+                batchErrors.addAll(result.getErrors());
+            } else if (payload instanceof DelayedIncrementalPartialResult partial && partial.getIncremental() != null) {
+                for (var item : partial.getIncremental()) {
+                    if (item.getErrors() != null) {
+                        batchErrors.addAll(item.getErrors());
+                    }
+                }
+            }
+        }
+
+        // Keeps the errors and size of a full batch until the stream ends and the request is reported
+        private void fold() {
+            foldedEvents += pending;
+            foldedBytes += buffer.size() + generator.getOutputBuffered();
+            foldedErrorCount += batchErrors.size();
+            for (var error : batchErrors) {
+                if (foldedErrors.size() >= MAX_FOLDED_ERRORS) {
+                    break;
+                }
+                foldedErrors.add(error);
+            }
+            summarized.add(pending);
+            discard();
+        }
+
+        private synchronized void flushDue() {
+            if (!completed && pending > 0) {
+                flush(true);
+            }
+        }
+
+        private void flush(boolean hasNext) {
+            if (flush != null) {
+                flush.cancel(false);
+                flush = null;
+            }
+            // The request handle must be closed even when a stream ends without payloads
+            if (pending == 0 && reported) {
+                discard();
+                return;
+            }
+
+            var events = pending;
+            byte[] batch;
+            try {
+                begin();
+                generator.writeEndArray();
+                generator.writeBooleanField("hasNext", hasNext);
+                if (foldedEvents > 0) {
+                    writeFolded();
+                }
+                generator.writeEndObject();
+                generator.close();
+                batch = buffer.toByteArray();
+            } catch (IOException e) {
+                System.err.println("ERROR: Failed to serialize stream batch: " + e.getMessage());
+                discard();
+                return;
+            }
+            discard();
+
+            long requestHandle = 0;
+            Continuation next = null;
+            if (!reported) {
+                reported = true;
+                if (handle != null && handle.Claim()) {
+                    requestHandle = handle.RequestHandle();
+                }
+            } else {
+                next = continuation;
+            }
+            if (requestHandle == 0 && next == null) {
+                skip(events);
+                return;
+            }
+
+            var instanceHandle = handle.InstanceHandle();
+            var claimed = requestHandle;
+            var continued = next;
+            Runnable submit = () -> submit(instanceHandle, claimed, continued, batch, events);
+            try {
+                timer.execute(submit);
+            } catch (RejectedExecutionException e) {
+                // Shut down, the request must still be closed
+                submit.run();
+            }
+        }
+
+        private void writeFolded() throws IOException {
+            if (!foldedErrors.isEmpty()) {
+                generator.writeFieldName("errors");
+                ResponseSerializer.WriteErrors(generator, foldedErrors);
+            }
+            generator.writeFieldName("extensions");
+            generator.writeStartObject();
+            generator.writeFieldName(ResponseSummarizer.SUMMARY_EXTENSION);
+            generator.writeStartObject();
+            generator.writeNumberField("events", foldedEvents);
+            generator.writeNumberField("bytes", foldedBytes);
+            generator.writeNumberField("errors", foldedErrorCount);
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+
+        private void begin() throws IOException {
+            if (generator != null) {
+                return;
+            }
+            buffer = new ByteArrayBuilder();
+            generator = FACTORY.createGenerator(buffer);
+            generator.writeStartObject();
+            generator.writeFieldName("incremental");
+            generator.writeStartArray();
+        }
+
+        private void discard() {
+            buffer = null;
+            generator = null;
+            pending = 0;
+            batchErrors.clear();
+        }
+    }
+}
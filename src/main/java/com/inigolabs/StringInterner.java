@@ -0,0 +1,96 @@
+package com.inigolabs;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of strings decoded from native memory, for values that repeat across requests
+ * such as the responses ProcessRequest returns for blocked requests.
+ *
+ * A lookup hashes and compares the bytes where they are, so a hit neither copies nor decodes.
+ * The cache is direct-mapped: each value has one slot, and a new value replaces whatever was in
+ * its slot. Lookups take no locks; slots hold immutable entries.
+ */
+@SuppressWarnings("preview")
+public final class StringInterner {
+    public record Stats(
+        long Hits,
+        long Misses,
+        long Skipped
+    ) {}
+
+    private record Entry(int hash, byte[] bytes, String value) {}
+
+    private final Entry[] entries;
+    private final int mask;
+    private final int maxLength;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Creates an interner.
+     *
+     * @param size The number of slots, rounded up to a power of two.
+     * @param maxLength The longest value in bytes that is interned.
+     */
+    public StringInterner(int size, int maxLength) {
+        var slots = size > 1 ? Integer.highestOneBit(size - 1) << 1 : 1;
+        this.entries = new Entry[slots];
+        this.mask = slots - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the string for the given UTF-8 bytes, decoding and caching it on a miss.
+     *
+     * @param bytes The UTF-8 bytes.
+     * @return The decoded string, or null if the value is longer than the interned maximum.
+     */
+    public String Intern(MemorySegment bytes) {
+        var length = bytes.byteSize();
+        if (length > maxLength) {
+            skipped.increment();
+            return null;
+        }
+
+        var hash = hash(bytes);
+        var index = hash & mask;
+        var entry = entries[index];
+        if (entry != null && entry.hash == hash && entry.bytes.length == length
+                && MemorySegment.mismatch(bytes, 0, length, MemorySegment.ofArray(entry.bytes), 0, length) < 0) {
+            hits.increment();
+            return entry.value;
+        }
+
+        misses.increment();
+        var copy = bytes.toArray(ValueLayout.JAVA_BYTE);
+        var value = new String(copy, StandardCharsets.UTF_8);
+        entries[index] = new Entry(hash, copy, value);
+        return value;
+    }
+
+    /**
+     * Returns a snapshot of the interner counters.
+     *
+     * @return The current interner statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            hits.sum(),
+            misses.sum(),
+            skipped.sum()
+        );
+    }
+
+    // FNV-1a, mixed so that the low bits used for the slot index depend on every byte
+    private static int hash(MemorySegment bytes) {
+        var hash = 0x811c9dc5;
+        for (long i = 0, length = bytes.byteSize(); i < length; i++) {
+            hash = (hash ^ bytes.get(ValueLayout.JAVA_BYTE, i)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
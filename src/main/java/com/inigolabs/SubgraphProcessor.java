@@ -0,0 +1,356 @@
+package com.inigolabs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the subgraph fetches of a federation gateway through Inigo, so that access control and
+ * analytics apply per subgraph.
+ *
+ * Each subgraph gets its own native instances, one linked to each gateway instance and named
+ * after the subgraph, and fetches are striped across them the way gateway requests are striped
+ * across the gateway instances. A fetch goes through ProcessRequest, then the transport that calls the
+ * subgraph, then ProcessResponse, whose output replaces the subgraph response when Inigo
+ * rewrites it. Independent fetches of a query plan run concurrently, one virtual thread each,
+ * so Inigo adds the cost of the slowest fetch rather than the sum of all of them.
+ *
+ * Fetches share the native call guard and request handles of the engine, so the guard bounds
+ * every call into the library and shutdown waits for, or closes, subgraph requests as well.
+ * Like the gateway path, a fetch Inigo fails to process passes through to the subgraph.
+ */
+public final class SubgraphProcessor implements AutoCloseable {
+    public record Stats(
+        int Subgraphs,
+        long Fetches,
+        long Blocked,
+        long PassedThrough,
+        long Failed
+    ) {}
+
+    // The native calls of a fetch, replaced in tests
+    public interface Natives {
+        long Create(Inigo.Config config);
+
+        Foreign.ProcessRequestResult ProcessRequest(long instanceHandle, String subgraph, NativePayload headers, NativePayload input);
+
+        // Returns Inigo's version of the response, empty if unchanged, a null response closes the request
+        String ProcessResponse(long instanceHandle, long requestHandle, byte[] response);
+    }
+
+    // Calls the subgraph, returning its response JSON as UTF-8 bytes
+    @FunctionalInterface
+    public interface Transport {
+        byte[] Send() throws Exception;
+    }
+
+    /**
+     * A fetch from a query plan.
+     *
+     * @param Subgraph The subgraph name.
+     * @param Headers The headers sent to the subgraph, may be null.
+     * @param Query The subgraph operation.
+     * @param OperationName The operation name, may be null.
+     * @param Variables The variables, may be null.
+     * @param Transport Calls the subgraph.
+     */
+    public record Fetch(
+        String Subgraph,
+        Map<String, ? extends List<String>> Headers,
+        String Query,
+        String OperationName,
+        Map<String, Object> Variables,
+        Transport Transport
+    ) {}
+
+    /**
+     * The outcome of a fetch.
+     *
+     * @param Subgraph The subgraph name.
+     * @param Response The response to use: Inigo's when the fetch was blocked or rewritten, otherwise the subgraph's. Null if the fetch failed.
+     * @param Blocked Whether Inigo blocked the fetch, so the subgraph was not called.
+     * @param StatusCode The status Inigo chose for the fetch.
+     * @param Error Why the fetch failed, or null.
+     */
+    public record Result(
+        String Subgraph,
+        byte[] Response,
+        boolean Blocked,
+        int StatusCode,
+        Exception Error
+    ) {}
+
+    private static final byte[] UNAVAILABLE =
+        "{\"errors\":[{\"message\":\"Too many requests\",\"extensions\":{\"code\":\"SERVICE_UNAVAILABLE\"}}],\"data\":null}".getBytes(StandardCharsets.UTF_8);
+
+    private final Inigo.Config config;
+    private final InstancePool gateways;
+    private final Natives natives;
+    private final NativeCallGuard nativeCallGuard;
+    private final RequestHandles requestHandles;
+    private final HeaderEncoder headerEncoder;
+    private final Map<String, InstancePool> instances = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder passedThrough = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Creates a processor for the subgraphs of a gateway. Subgraph instances are created on first use.
+     *
+     * @param config The gateway configuration, its token and logging apply to every subgraph.
+     * @param gatewayHandle The handle to the gateway instance, created with Federation set.
+     */
+    public SubgraphProcessor(Inigo.Config config, long gatewayHandle) {
+        this(config, new InstancePool(new long[] {gatewayHandle}, config.InstanceStriping), new ForeignNatives(), config.NativeCallMaxLimit > 0 ? new NativeCallGuard(config) : null,
+            new RequestHandles(config.ReportHandleLeaks));
+    }
+
+    /**
+     * Creates a processor that makes its native calls through the given natives.
+     *
+     * @param config The gateway configuration, its token and logging apply to every subgraph.
+     * @param gatewayHandle The handle to the gateway instance, created with Federation set.
+     * @param natives The native calls of a fetch.
+     * @param nativeCallGuard Bounds the ProcessRequest calls, null for no bound.
+     * @param requestHandles Tracks the requests between ProcessRequest and ProcessResponse.
+     */
+    public SubgraphProcessor(Inigo.Config config, long gatewayHandle, Natives natives, NativeCallGuard nativeCallGuard, RequestHandles requestHandles) {
+        this(config, new InstancePool(new long[] {gatewayHandle}, config.InstanceStriping), natives, nativeCallGuard, requestHandles);
+    }
+
+    /**
+     * Creates a processor for a pool of gateway instances, each subgraph gets one instance per gateway instance.
+     *
+     * @param config The gateway configuration, its token and logging apply to every subgraph.
+     * @param gateways The gateway instances, created with Federation set.
+     * @param natives The native calls of a fetch.
+     * @param nativeCallGuard Bounds the ProcessRequest calls, null for no bound.
+     * @param requestHandles Tracks the requests between ProcessRequest and ProcessResponse.
+     */
+    public SubgraphProcessor(Inigo.Config config, InstancePool gateways, Natives natives, NativeCallGuard nativeCallGuard, RequestHandles requestHandles) {
+        this.config = config;
+        this.gateways = gateways;
+        this.natives = natives;
+        this.nativeCallGuard = nativeCallGuard;
+        this.requestHandles = requestHandles;
+        this.headerEncoder = new HeaderEncoder(config);
+    }
+
+    /**
+     * Creates a processor that calls the Inigo library.
+     *
+     * @param config The gateway configuration, its token and logging apply to every subgraph.
+     * @param gateways The gateway instances, created with Federation set.
+     * @param nativeCallGuard Bounds the ProcessRequest calls, null for no bound.
+     * @param requestHandles Tracks the requests between ProcessRequest and ProcessResponse.
+     */
+    public SubgraphProcessor(Inigo.Config config, InstancePool gateways, NativeCallGuard nativeCallGuard, RequestHandles requestHandles) {
+        this(config, gateways, new ForeignNatives(), nativeCallGuard, requestHandles);
+    }
+
+    /**
+     * Runs a fetch on the calling thread.
+     *
+     * @param fetch The fetch.
+     * @return The outcome, never null.
+     */
+    public Result Process(Fetch fetch) {
+        fetches.increment();
+        try {
+            return process(fetch);
+        } catch (Exception e) {
+            failed.increment();
+            return new Result(fetch.Subgraph(), null, false, 0, e);
+        }
+    }
+
+    private Result process(Fetch fetch) throws Exception {
+        var subgraph = fetch.Subgraph();
+        long instanceHandle;
+        Foreign.ProcessRequestResult request;
+        try {
+            instanceHandle = instance(subgraph).Select(null);
+            var headers = fetch.Headers() != null ? headerEncoder.Encode(fetch.Headers()) : null;
+            var query = fetch.Query() != null ? fetch.Query().getBytes(StandardCharsets.UTF_8) : new byte[0];
+            var input = RequestEncoder.Encode(query, fetch.OperationName(), fetch.Variables(), null);
+            request = guardedProcessRequest(instanceHandle, subgraph, headers, input);
+        } catch (Exception e) {
+            // Inigo failed, not the subgraph, so call it as the gateway path does
+            System.err.println("ERROR: Failed to process request of subgraph " + subgraph + ": " + e.getMessage());
+            passedThrough.increment();
+            return new Result(subgraph, fetch.Transport().Send(), false, 200, null);
+        }
+
+        if (request == null) {
+            if (nativeCallGuard.Policy() == NativeCallGuard.Policy.FAIL_CLOSED) {
+                blocked.increment();
+                return new Result(subgraph, UNAVAILABLE.clone(), true, 503, null);
+            }
+            passedThrough.increment();
+            return new Result(subgraph, fetch.Transport().Send(), false, 200, null);
+        }
+        if (request.IsBlocked()) {
+            blocked.increment();
+            return new Result(subgraph, request.Output().getBytes(StandardCharsets.UTF_8), true, request.StatusCode(), null);
+        }
+
+        var handle = requestHandles.Open(instanceHandle, request.Handle());
+        byte[] response;
+        try {
+            response = fetch.Transport().Send();
+        } catch (Exception e) {
+            if (handle.Claim()) {
+                closeRequest(instanceHandle, handle.RequestHandle());
+            }
+            failed.increment();
+            return new Result(subgraph, null, false, request.StatusCode(), e);
+        }
+
+        // A shutdown may have closed the request while the subgraph was called
+        if (!handle.Claim()) {
+            return new Result(subgraph, response, false, request.StatusCode(), null);
+        }
+        try {
+            var processed = natives.ProcessResponse(instanceHandle, handle.RequestHandle(), response);
+            if (processed != null && !processed.isEmpty()) {
+                response = processed.getBytes(StandardCharsets.UTF_8);
+            }
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to process response of subgraph " + subgraph + ": " + e.getMessage());
+        }
+        return new Result(subgraph, response, false, request.StatusCode(), null);
+    }
+
+    // Takes a slot from the guard right before the native call and always gives it back, null if the guard rejected the call
+    private Foreign.ProcessRequestResult guardedProcessRequest(long instanceHandle, String subgraph, NativePayload headers, NativePayload input) {
+        if (nativeCallGuard == null) {
+            return natives.ProcessRequest(instanceHandle, subgraph, headers, input);
+        }
+        if (!nativeCallGuard.TryAcquire()) {
+            return null;
+        }
+
+        var start = System.nanoTime();
+        var error = true;
+        try {
+            var request = natives.ProcessRequest(instanceHandle, subgraph, headers, input);
+            error = false;
+            return request;
+        } finally {
+            nativeCallGuard.Release(System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * Runs a fetch on its own virtual thread.
+     *
+     * @param fetch The fetch.
+     * @return A future for the outcome, it does not complete exceptionally.
+     */
+    public CompletableFuture<Result> ProcessAsync(Fetch fetch) {
+        try {
+            return CompletableFuture.supplyAsync(() -> Process(fetch), executor);
+        } catch (RejectedExecutionException e) {
+            // Closed, run the fetch on the calling thread rather than fail it
+            return CompletableFuture.completedFuture(Process(fetch));
+        }
+    }
+
+    /**
+     * Runs independent fetches concurrently and waits for all of them.
+     *
+     * @param fetches The fetches, e.g. one parallel step of a query plan.
+     * @return The outcomes, in the order of the fetches.
+     */
+    public List<Result> ProcessAll(List<Fetch> fetches) {
+        if (fetches.size() == 1) {
+            return List.of(Process(fetches.get(0)));
+        }
+
+        var futures = new ArrayList<CompletableFuture<Result>>(fetches.size());
+        for (var fetch : fetches) {
+            futures.add(ProcessAsync(fetch));
+        }
+        var results = new ArrayList<Result>(futures.size());
+        for (var future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Returns a snapshot of the processor counters.
+     *
+     * @return The current processor statistics.
+     */
+    public Stats GetStats() {
+        return new Stats(
+            instances.size(),
+            fetches.sum(),
+            blocked.sum(),
+            passedThrough.sum(),
+            failed.sum()
+        );
+    }
+
+    /**
+     * Waits for running fetches. The subgraph instances are released with the native library.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private void closeRequest(long instanceHandle, long requestHandle) {
+        try {
+            natives.ProcessResponse(instanceHandle, requestHandle, null);
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to close request: " + e.getMessage());
+        }
+    }
+
+    // One instance per gateway instance, a request handle goes back to the instance that created it
+    private InstancePool instance(String subgraph) {
+        return instances.computeIfAbsent(subgraph, name -> {
+            var gatewayHandles = gateways.Handles();
+            var handles = new long[gatewayHandles.length];
+            for (int i = 0; i < gatewayHandles.length; i++) {
+                var subgraphConfig = new Inigo.Config(config.Token);
+                subgraphConfig.LogLevel = config.LogLevel;
+                subgraphConfig.Name = name;
+                subgraphConfig.ServiceURL = config.ServiceURL;
+                subgraphConfig.EgressURL = config.EgressURL;
+                subgraphConfig.DisableResponseData = config.DisableResponseData;
+                subgraphConfig.Gateway = gatewayHandles[i];
+                handles[i] = natives.Create(subgraphConfig);
+            }
+            return new InstancePool(handles, config.InstanceStriping);
+        });
+    }
+
+    private static final class ForeignNatives implements Natives {
+        @Override
+        public long Create(Inigo.Config config) {
+            return Foreign.Create(config);
+        }
+
+        @Override
+        public Foreign.ProcessRequestResult ProcessRequest(long instanceHandle, String subgraph, NativePayload headers, NativePayload input) {
+            return Foreign.ProcessRequest(instanceHandle, subgraph, headers, input);
+        }
+
+        @Override
+        public String ProcessResponse(long instanceHandle, long requestHandle, byte[] response) {
+            return Foreign.ProcessResponse(instanceHandle, requestHandle, response);
+        }
+    }
+}
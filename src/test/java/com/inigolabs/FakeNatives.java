@@ -0,0 +1,76 @@
+package com.inigolabs;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Engine natives for tests. Requests are allowed with increasing handles unless an output is set,
+ * in which case they are blocked with it. Responses are recorded as "handle:json" or "handle:closed".
+ * With a gate set, ProcessRequest waits for it to open.
+ */
+@SuppressWarnings("preview")
+public final class FakeNatives implements InigoEngine.Natives {
+    public final List<String> Requests = new CopyOnWriteArrayList<>();
+    public final List<String> Responses = new CopyOnWriteArrayList<>();
+    public volatile String BlockedOutput;
+    public volatile RuntimeException Failure;
+    public volatile boolean Shutdown;
+    public volatile CountDownLatch Gate;
+    private final AtomicLong nextHandle = new AtomicLong(100);
+
+    public static InigoEngine Engine(Inigo.Config config, FakeNatives natives) {
+        return new InigoEngine(config, new InstancePool(new long[] { 1 }, InstancePool.Striping.THREAD), natives);
+    }
+
+    @Override
+    public Foreign.ProcessRequestResult ProcessRequest(long instanceHandle, NativePayload headers, NativePayload input, StringInterner interner) {
+        var gate = Gate;
+        if (gate != null) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (Failure != null) {
+            throw Failure;
+        }
+        Requests.add(read(input));
+        if (BlockedOutput != null) {
+            return new Foreign.ProcessRequestResult(0, BlockedOutput, null, null, 429);
+        }
+        return new Foreign.ProcessRequestResult(nextHandle.getAndIncrement(), null, null, null, 200);
+    }
+
+    @Override
+    public void ProcessResponse(long instanceHandle, long requestHandle, NativeBuffer response) {
+        Responses.add(requestHandle + ":" + (response != null ? read(response) : "closed"));
+    }
+
+    @Override
+    public void DisposeHandle(long requestHandle) {
+    }
+
+    @Override
+    public void Shutdown() {
+        Shutdown = true;
+    }
+
+    private static String read(NativePayload payload) {
+        try (var arena = Arena.ofConfined()) {
+            var segment = arena.allocate(payload.ByteSize());
+            payload.WriteTo(segment);
+            return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String read(NativeBuffer buffer) {
+        var bytes = buffer.NullTerminated().asSlice(0, buffer.Size()).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+public class FlushSchedulerTest {
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void flushesEveryInterval() throws Exception {
+        var flushes = new AtomicInteger();
+        try (var scheduler = new FlushScheduler(Duration.ofMillis(10), Duration.ofMillis(10), Double.MAX_VALUE, flushes::incrementAndGet)) {
+            scheduler.Start();
+            await(() -> flushes.get() >= 3);
+            assertEquals(0, scheduler.GetStats().Postponed());
+        }
+    }
+
+    @Test
+    public void postponesUnderLoadUntilMaxInterval() throws Exception {
+        var flushes = new AtomicInteger();
+        // Any request rate is above a negative maximum, so only the max interval lets flushes through
+        try (var scheduler = new FlushScheduler(Duration.ofMillis(10), Duration.ofMillis(100), -1, flushes::incrementAndGet)) {
+            scheduler.Start();
+            await(() -> flushes.get() >= 2);
+            var stats = scheduler.GetStats();
+            assertTrue(stats.Postponed() >= stats.Flushes());
+        }
+    }
+
+    @Test
+    public void countsFailures() throws Exception {
+        try (var scheduler = new FlushScheduler(Duration.ofMillis(10), Duration.ofMillis(10), Double.MAX_VALUE, () -> {
+            throw new IllegalStateException("not initialized");
+        })) {
+            scheduler.Start();
+            await(() -> scheduler.GetStats().Failures() >= 2);
+            assertEquals(0, scheduler.GetStats().Flushes());
+        }
+    }
+
+    @Test
+    public void stopsFlushingWhenClosed() throws Exception {
+        var flushes = new AtomicInteger();
+        var scheduler = new FlushScheduler(Duration.ofMillis(10), Duration.ofMillis(10), Double.MAX_VALUE, flushes::incrementAndGet);
+        scheduler.Start();
+        await(() -> flushes.get() >= 1);
+        scheduler.close();
+        Thread.sleep(50);
+        var count = flushes.get();
+        Thread.sleep(50);
+        assertEquals(count, flushes.get());
+    }
+}
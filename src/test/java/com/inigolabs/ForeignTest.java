@@ -0,0 +1,18 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class ForeignTest {
+    @Test
+    public void comparesProcessRequestResultsByValue() {
+        var result = new Foreign.ProcessRequestResult(0, "{\"errors\":[]}", "blocked", null, 429);
+
+        assertEquals(new Foreign.ProcessRequestResult(0, "{\"errors\":[]}", "blocked", null, 429), result);
+        assertEquals(new Foreign.ProcessRequestResult(0, "{\"errors\":[]}", "blocked", null, 429).hashCode(), result.hashCode());
+        assertNotEquals(new Foreign.ProcessRequestResult(0, "{\"errors\":[]}", "blocked", null, 403), result);
+        assertEquals("ProcessRequestResult[Handle=0, Output={\"errors\":[]}, Status=blocked, Analysis=null, StatusCode=429]", result.toString());
+    }
+}
@@ -0,0 +1,85 @@
+package com.inigolabs.GraphQLJava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.inigolabs.FakeNatives;
+import com.inigolabs.Inigo;
+
+import graphql.ExecutionInput;
+import graphql.GraphQL;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+
+public class InigoInstrumentationTest {
+    private final FakeNatives natives = new FakeNatives();
+    private final AtomicInteger resolved = new AtomicInteger();
+
+    private GraphQL graphQL(InigoInstrumentation instrumentation) {
+        var registry = new SchemaParser().parse("type Query { hello: String }");
+        var wiring = RuntimeWiring.newRuntimeWiring()
+            .type("Query", type -> type.dataFetcher("hello", env -> {
+                resolved.incrementAndGet();
+                return "world";
+            }))
+            .build();
+        var schema = new SchemaGenerator().makeExecutableSchema(registry, wiring);
+        return GraphQL.newGraphQL(schema).instrumentation(instrumentation).build();
+    }
+
+    private static ExecutionInput input() {
+        return ExecutionInput.newExecutionInput("{ hello }")
+            .graphQLContext(Map.of(InigoInstrumentation.HEADERS, Map.of("user-agent", List.of("test"))))
+            .build();
+    }
+
+    @Test
+    public void reportsExecutedRequestOnce() {
+        var engine = FakeNatives.Engine(new Inigo.Config(), natives);
+        var result = graphQL(new InigoInstrumentation(engine)).execute(input());
+
+        assertEquals(Map.of("hello", "world"), result.getData());
+        assertEquals(1, natives.Requests.size());
+        assertTrue(natives.Requests.get(0).contains("{ hello }"));
+        assertEquals(List.of("100:{\"data\":{\"hello\":\"world\"}}"), natives.Responses);
+        assertEquals(0, engine.GetStats().Handles().Live());
+
+        assertTrue(engine.Shutdown(Duration.ofSeconds(1)));
+        assertEquals(1, natives.Responses.size());
+        assertTrue(natives.Shutdown);
+    }
+
+    @Test
+    public void abortsBlockedRequestWithInigoResponse() {
+        natives.BlockedOutput = "{\"errors\":[{\"message\":\"too many requests\",\"extensions\":{\"code\":\"RATE_LIMITED\"}}]}";
+        var engine = FakeNatives.Engine(new Inigo.Config(), natives);
+        var result = graphQL(new InigoInstrumentation(engine)).execute(input());
+
+        assertEquals(0, resolved.get());
+        assertEquals(1, result.getErrors().size());
+        assertEquals("too many requests", result.getErrors().get(0).getMessage());
+        assertEquals("RATE_LIMITED", result.getErrors().get(0).getExtensions().get("code"));
+        // Inigo closed the blocked request itself
+        assertEquals(List.of(), natives.Responses);
+        assertEquals(1, engine.GetStats().Blocked());
+    }
+
+    @Test
+    public void passesThroughAfterShutdown() {
+        var engine = FakeNatives.Engine(new Inigo.Config(), natives);
+        engine.Shutdown(Duration.ZERO);
+        var result = graphQL(new InigoInstrumentation(engine)).execute(input());
+
+        assertEquals(Map.of("hello", "world"), result.getData());
+        assertEquals(List.of(), natives.Requests);
+        assertEquals(1, engine.GetStats().PassedThrough());
+    }
+}
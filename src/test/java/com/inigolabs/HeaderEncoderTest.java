@@ -0,0 +1,67 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("preview")
+public class HeaderEncoderTest {
+    private static String write(NativePayload payload) {
+        try (var arena = Arena.ofConfined()) {
+            var segment = arena.allocate(payload.ByteSize());
+            payload.WriteTo(segment);
+            return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void matchesJacksonEncoding() throws Exception {
+        var headers = new LinkedHashMap<String, List<String>>();
+        headers.put("Authorization", List.of("Bearer \"abc\""));
+        headers.put("Accept", List.of("application/json", "text/plain"));
+        headers.put("X-Name", List.of("żółw\n"));
+
+        var encoder = new HeaderEncoder(null, null, 16);
+        var expected = new ObjectMapper().writeValueAsString(headers);
+        assertEquals(expected, write(encoder.Encode(headers)));
+        assertEquals(expected, write(encoder.Encode(headers)));
+        assertEquals(1, encoder.CachedEntries());
+    }
+
+    @Test
+    public void cachesOnlyListedHeadersAndNeverCredentials() {
+        var encoder = new HeaderEncoder(null, null, 16, new String[] { "Accept", "Authorization" });
+        for (int i = 0; i < 3; i++) {
+            var headers = new LinkedHashMap<String, List<String>>();
+            headers.put("Accept", List.of("application/json"));
+            headers.put("Authorization", List.of("Bearer " + i));
+            headers.put("traceparent", List.of("00-" + i + "-01"));
+            assertEquals("{\"Accept\":[\"application/json\"],\"Authorization\":[\"Bearer " + i + "\"],\"traceparent\":[\"00-" + i + "-01\"]}",
+                write(encoder.Encode(headers)));
+        }
+        assertEquals(1, encoder.CachedEntries());
+    }
+
+    @Test
+    public void filtersHeaders() {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Authorization", List.of("token"));
+        headers.put("Cookie", List.of("a=b"));
+        headers.put("X-Client", List.of("web"));
+
+        var allow = new HeaderEncoder(new String[] { "authorization", "COOKIE" }, new String[] { "cookie" }, 0);
+        assertEquals("{\"Authorization\":[\"token\"]}", write(allow.Encode(headers)));
+
+        var deny = new HeaderEncoder(null, new String[] { "authorization", "x-client", "cookie" }, 0);
+        assertEquals("{}", write(deny.Encode(headers)));
+    }
+}
@@ -0,0 +1,39 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class InigoEngineTest {
+    @Test
+    public void keepsBlockedResponseAsProduced() throws Exception {
+        var output = "{\"errors\":[{\"message\":\"too many requests\",\"extensions\":{\"code\":\"RATE_LIMITED\"}}],\"data\":null,\"extensions\":{\"inigo\":{\"status\":429}}}";
+        var result = InigoEngine.BlockedResult(new Foreign.ProcessRequestResult(0, output, null, null, 429));
+
+        var mapper = new ObjectMapper();
+        assertEquals(mapper.readTree(output), mapper.valueToTree(result.toSpecification()));
+        assertEquals("RATE_LIMITED", result.getErrors().get(0).getExtensions().get("code"));
+    }
+
+    @Test
+    public void blocksWhenResponseIsUnreadable() {
+        var result = InigoEngine.BlockedResult(new Foreign.ProcessRequestResult(0, "not json", null, null, 403));
+
+        assertEquals(1, result.getErrors().size());
+        assertEquals("Request blocked", result.getErrors().get(0).getMessage());
+        assertEquals(Map.of("code", "BLOCKED", "statusCode", 403), result.getErrors().get(0).getExtensions());
+    }
+
+    @Test
+    public void buildsErrorResult() {
+        var result = InigoEngine.ErrorResult("Too many requests", "SERVICE_UNAVAILABLE");
+
+        assertEquals(1, result.getErrors().size());
+        assertEquals("Too many requests", result.getErrors().get(0).getMessage());
+        assertEquals("SERVICE_UNAVAILABLE", result.getErrors().get(0).getExtensions().get("code"));
+    }
+}
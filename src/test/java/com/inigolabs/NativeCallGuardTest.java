@@ -0,0 +1,64 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class NativeCallGuardTest {
+    private static final long FAST = Duration.ofMillis(1).toNanos();
+    private static final long SLOW = Duration.ofMillis(100).toNanos();
+
+    @Test
+    public void limitsConcurrentCalls() {
+        var guard = new NativeCallGuard(2, 10, Duration.ofMillis(50), 0, Duration.ZERO, NativeCallGuard.Policy.FAIL_OPEN);
+        assertTrue(guard.TryAcquire());
+        assertTrue(guard.TryAcquire());
+        assertFalse(guard.TryAcquire());
+        assertEquals(1, guard.GetStats().Limited());
+
+        guard.Release(FAST, false);
+        assertTrue(guard.TryAcquire());
+    }
+
+    @Test
+    public void adaptsLimitToLatency() {
+        var guard = new NativeCallGuard(4, 8, Duration.ofMillis(50), 0, Duration.ZERO, NativeCallGuard.Policy.FAIL_OPEN);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(guard.TryAcquire());
+            guard.Release(FAST, false);
+        }
+        assertEquals(8, guard.GetStats().Limit());
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(guard.TryAcquire());
+            guard.Release(SLOW, false);
+        }
+        assertEquals(1, guard.GetStats().Limit());
+        assertEquals(20, guard.GetStats().Slow());
+    }
+
+    @Test
+    public void opensBreakerAndProbes() throws Exception {
+        var guard = new NativeCallGuard(4, 4, Duration.ofMillis(50), 3, Duration.ofMillis(500), NativeCallGuard.Policy.FAIL_OPEN);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(guard.TryAcquire());
+            guard.Release(FAST, true);
+        }
+        assertEquals(NativeCallGuard.State.OPEN, guard.GetStats().BreakerState());
+        assertFalse(guard.TryAcquire());
+
+        Thread.sleep(600);
+        assertTrue(guard.TryAcquire());
+        assertFalse(guard.TryAcquire());
+        assertEquals(NativeCallGuard.State.HALF_OPEN, guard.GetStats().BreakerState());
+
+        guard.Release(FAST, false);
+        assertEquals(NativeCallGuard.State.CLOSED, guard.GetStats().BreakerState());
+        assertTrue(guard.TryAcquire());
+        assertEquals(2, guard.GetStats().ShortCircuited());
+    }
+}
@@ -0,0 +1,87 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NativeLibraryTest {
+    private static final byte[] LIBRARY = "not really a library".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String hash(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+    private Path cache(byte[] bytes) throws Exception {
+        var path = folder.getRoot().toPath().resolve("sha256").resolve(hash(bytes)).resolve(NativeLibrary.FileName());
+        Files.createDirectories(path.getParent());
+        return Files.write(path, bytes);
+    }
+
+    @Test
+    public void resolvesPinnedChecksumFromCache() throws Exception {
+        var path = cache(LIBRARY);
+        assertEquals(path, NativeLibrary.Resolve("v0.30.0", hash(LIBRARY), folder.getRoot().toPath()));
+        assertTrue(Files.exists(path.resolveSibling(NativeLibrary.FileName() + ".verified")));
+    }
+
+    @Test
+    public void resolvesLatestFromFreshPointer() throws Exception {
+        var path = cache(LIBRARY);
+        var pointer = folder.getRoot().toPath().resolve("versions").resolve(NativeLibrary.LATEST).resolve(NativeLibrary.FileName() + ".sha256");
+        Files.createDirectories(pointer.getParent());
+        Files.writeString(pointer, hash(LIBRARY) + "  " + NativeLibrary.FileName() + "\n");
+
+        assertEquals(path, NativeLibrary.Resolve(NativeLibrary.LATEST, null, folder.getRoot().toPath()));
+    }
+
+    @Test
+    public void hashesAgainOnlyWhenFileChanges() throws Exception {
+        var cacheDir = folder.getRoot().toPath();
+        var hash = hash(LIBRARY);
+        var path = cache(LIBRARY);
+        var modified = Files.getLastModifiedTime(path);
+        assertEquals(path, NativeLibrary.verified(cacheDir, hash, true));
+
+        // Same size and time as the verified file, so it is not read again
+        var tampered = LIBRARY.clone();
+        tampered[0] ^= 1;
+        Files.write(path, tampered);
+        Files.setLastModifiedTime(path, modified);
+        assertEquals(path, NativeLibrary.verified(cacheDir, hash, true));
+
+        Files.write(path, "a different library".getBytes(StandardCharsets.UTF_8));
+        assertNull(NativeLibrary.verified(cacheDir, hash, true));
+
+        Files.write(path, LIBRARY);
+        assertEquals(path, NativeLibrary.verified(cacheDir, hash, true));
+    }
+
+    @Test
+    public void hashesPinnedLibraryDespiteMarker() throws Exception {
+        var cacheDir = folder.getRoot().toPath();
+        var tampered = "not really a librarz".getBytes(StandardCharsets.UTF_8);
+        var path = cacheDir.resolve("sha256").resolve(hash(LIBRARY)).resolve(NativeLibrary.FileName());
+        Files.createDirectories(path.getParent());
+        Files.write(path, tampered);
+
+        // A record forged by whoever swapped the file
+        var marker = path.resolveSibling(NativeLibrary.FileName() + ".verified");
+        Files.writeString(marker, Files.size(path) + " " + Files.getLastModifiedTime(path).toMillis() + "\n");
+
+        assertNull(NativeLibrary.verified(cacheDir, hash(LIBRARY), false));
+        assertEquals(path, NativeLibrary.verified(cacheDir, hash(LIBRARY), true));
+    }
+}
@@ -0,0 +1,61 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NativeMemoryPoolTest {
+    @Test
+    public void reusesReleasedSlabs() {
+        try (var pool = new NativeMemoryPool(new long[] { 64, 256 }, 1024)) {
+            try (var scratch = pool.Acquire(100)) {
+                assertEquals(100, scratch.allocate(100).byteSize());
+            }
+            try (var scratch = pool.Acquire(200)) {
+                scratch.allocate(200);
+            }
+
+            var stats = pool.GetStats();
+            assertEquals(1, stats.Hits());
+            assertEquals(1, stats.Misses());
+            assertEquals(0, stats.InUseBytes());
+            assertEquals(256, stats.HighWaterMarkBytes());
+            assertEquals(256, stats.RetainedBytes());
+        }
+    }
+
+    @Test
+    public void spillsPastSlabAndOversizedRequests() {
+        try (var pool = new NativeMemoryPool(new long[] { 64 }, 1024)) {
+            try (var scratch = pool.Acquire(32)) {
+                scratch.allocate(48);
+                assertEquals(128, scratch.allocate(128).byteSize());
+            }
+            try (var scratch = pool.Acquire(4096)) {
+                assertEquals(4096, scratch.allocate(4096).byteSize());
+            }
+
+            var stats = pool.GetStats();
+            assertEquals(1, stats.Oversized());
+            assertTrue(stats.RetainedBytes() <= 64);
+        }
+    }
+
+    @Test
+    public void bufferGrowsToNextSizeClass() {
+        try (var pool = new NativeMemoryPool(new long[] { 64, 256, 1024 }, 4096)) {
+            try (var buffer = new NativeBuffer(pool, 16)) {
+                for (int i = 0; i < 200; i++) {
+                    buffer.write(i);
+                }
+                assertEquals(200, buffer.Size());
+                assertEquals(256, pool.GetStats().InUseBytes());
+            }
+
+            // One slab for the initial capacity and one for the growth, none for a half-used class
+            assertEquals(2, pool.GetStats().Misses());
+            assertEquals(0, pool.GetStats().InUseBytes());
+        }
+    }
+}
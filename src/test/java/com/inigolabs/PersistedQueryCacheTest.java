@@ -0,0 +1,74 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PersistedQueryCacheTest {
+    private static String hash(String query) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void registersAndResolves() throws Exception {
+        var cache = new PersistedQueryCache(10);
+        var query = "{ books { title } }";
+        assertNull(cache.Resolve(hash(query)));
+
+        var entry = cache.Register(hash(query), query);
+        assertNotNull(entry);
+        assertEquals(query, entry.Query());
+        assertArrayEquals(query.getBytes(StandardCharsets.UTF_8), entry.Bytes());
+        assertSame(entry, cache.Resolve(hash(query)));
+        assertSame(entry, cache.Register(hash(query), query));
+        assertEquals(1, cache.Size());
+    }
+
+    @Test
+    public void rejectsHashMismatch() throws Exception {
+        var cache = new PersistedQueryCache(10);
+        assertNull(cache.Register(hash("{ authors { name } }"), "{ books { title } }"));
+        assertEquals(0, cache.Size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        var cache = new PersistedQueryCache(2);
+        cache.Register(hash("{ a }"), "{ a }");
+        cache.Register(hash("{ b }"), "{ b }");
+        cache.Resolve(hash("{ a }"));
+        cache.Register(hash("{ c }"), "{ c }");
+
+        assertEquals(2, cache.Size());
+        assertNotNull(cache.Resolve(hash("{ a }")));
+        assertNull(cache.Resolve(hash("{ b }")));
+        assertNotNull(cache.Resolve(hash("{ c }")));
+    }
+
+    @Test
+    public void readsHashFromExtensions() {
+        assertEquals("abc", PersistedQueryCache.HashOf(Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", "ABC"))));
+        assertNull(PersistedQueryCache.HashOf(Map.of("persistedQuery", Map.of("version", 1))));
+        assertNull(PersistedQueryCache.HashOf(Map.of()));
+        assertNull(PersistedQueryCache.HashOf(null));
+    }
+
+    @Test
+    public void recognizesHashOnlyDocuments() {
+        assertTrue(PersistedQueryCache.IsHashOnly(null));
+        assertTrue(PersistedQueryCache.IsHashOnly(" "));
+        assertTrue(PersistedQueryCache.IsHashOnly(PersistedQueryCache.PLACEHOLDER));
+        assertFalse(PersistedQueryCache.IsHashOnly("{ books { title } }"));
+    }
+}
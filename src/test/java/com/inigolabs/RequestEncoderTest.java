@@ -0,0 +1,52 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("preview")
+public class RequestEncoderTest {
+    private static String write(NativePayload payload) {
+        try (var arena = Arena.ofConfined()) {
+            var segment = arena.allocate(payload.ByteSize());
+            payload.WriteTo(segment);
+            return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static NativePayload encode(String query, String operationName, Map<String, Object> variables, Map<String, Object> extensions) {
+        return RequestEncoder.Encode(query.getBytes(StandardCharsets.UTF_8), operationName, variables, extensions);
+    }
+
+    @Test
+    public void matchesJacksonEncoding() throws Exception {
+        var query = "query Books($q: String = \"a\\\\b\") {\n\tbooks(q: $q) { title } # żółw \u0001\r\n}";
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("q", "x\"y");
+        variables.put("ids", List.of(1, 2));
+        Map<String, Object> extensions = Map.of("persistedQuery", Map.of("version", 1));
+
+        var expected = new LinkedHashMap<String, Object>();
+        expected.put("query", query);
+        expected.put("operationName", "Books");
+        expected.put("variables", variables);
+        expected.put("extensions", extensions);
+
+        assertEquals(new ObjectMapper().writeValueAsString(expected), write(encode(query, "Books", variables, extensions)));
+    }
+
+    @Test
+    public void omitsEmptyFields() {
+        assertEquals("{\"query\":\"{ a }\"}", write(encode("{ a }", null, Map.of(), null)));
+        assertEquals("{\"query\":\"{ a }\",\"variables\":{\"v\":null}}", write(encode("{ a }", null, java.util.Collections.singletonMap("v", null), Map.of())));
+    }
+}
@@ -0,0 +1,53 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class RequestHandlesTest {
+    @Test
+    public void claimsOnce() {
+        var handles = new RequestHandles(false);
+        var handle = handles.Open(1, 2);
+        assertEquals(1, handles.Live());
+
+        assertTrue(handle.Claim());
+        assertFalse(handle.Claim());
+        assertEquals(new RequestHandles.Stats(0, 1, 1, 0), handles.GetStats());
+    }
+
+    @Test
+    public void closesLiveHandles() {
+        var handles = new RequestHandles(false);
+        var first = handles.Open(1, 10);
+        var second = handles.Open(1, 20);
+        assertTrue(first.Claim());
+
+        var closed = new ArrayList<Long>();
+        handles.CloseAll((instanceHandle, requestHandle) -> closed.add(requestHandle));
+        assertEquals(List.of(20L), closed);
+        assertFalse(second.Claim());
+        assertEquals(new RequestHandles.Stats(0, 2, 2, 0), handles.GetStats());
+    }
+
+    @Test
+    public void reclaimsUnreachableHandles() throws Exception {
+        var disposed = new CopyOnWriteArrayList<Long>();
+        var handles = new RequestHandles(false, disposed::add);
+        handles.Open(1, 30);
+        assertTrue(handles.Open(1, 40).Claim());
+
+        for (int i = 0; i < 50 && disposed.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(List.of(30L), disposed);
+        assertEquals(new RequestHandles.Stats(0, 2, 1, 1), handles.GetStats());
+    }
+}
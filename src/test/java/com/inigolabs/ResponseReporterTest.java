@@ -0,0 +1,156 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import graphql.ExecutionResult;
+
+public class ResponseReporterTest {
+    private static final byte[] RESPONSE = "{\"data\":{}}".getBytes(StandardCharsets.UTF_8);
+
+    // Records each call, the first one waits until released so that later reports queue up
+    private static final class RecordingSender implements ResponseReporter.Sender {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void Send(long instanceHandle, long requestHandle, NativeBuffer response) {
+            if (requestHandle == 1) {
+                busy.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            var thread = Thread.currentThread().getName().startsWith("inigo-response") ? "worker" : "caller";
+            calls.add(requestHandle + (response != null ? " reported" : " closed") + " on " + thread);
+        }
+    }
+
+    private static ResponseReporter reporter(ResponseReporter.OverflowPolicy policy, RecordingSender sender) {
+        return new ResponseReporter(new ResponseSampler(1.0, true, null, false), 1, 1, policy, false, 0, sender);
+    }
+
+    @Test
+    public void dropsNewestAndClosesOnWorker() throws Exception {
+        var sender = new RecordingSender();
+        var reporter = reporter(ResponseReporter.OverflowPolicy.DROP_NEWEST, sender);
+        reporter.SubmitSerialized(7, 1, RESPONSE);
+        assertTrue(sender.busy.await(5, TimeUnit.SECONDS));
+        reporter.SubmitSerialized(7, 2, RESPONSE);
+        reporter.SubmitSerialized(7, 3, RESPONSE);
+
+        sender.release.countDown();
+        assertTrue(reporter.Drain(Duration.ofSeconds(5)));
+        assertEquals(List.of("1 reported on worker", "3 closed on worker", "2 reported on worker"), sender.calls);
+        assertEquals(new ResponseReporter.Stats(3, 2, 1, 0, 0, 0, 0), reporter.GetStats());
+    }
+
+    @Test
+    public void dropsOldest() throws Exception {
+        var sender = new RecordingSender();
+        var reporter = reporter(ResponseReporter.OverflowPolicy.DROP_OLDEST, sender);
+        reporter.SubmitSerialized(7, 1, RESPONSE);
+        assertTrue(sender.busy.await(5, TimeUnit.SECONDS));
+        reporter.SubmitSerialized(7, 2, RESPONSE);
+        reporter.SubmitSerialized(7, 3, RESPONSE);
+
+        sender.release.countDown();
+        assertTrue(reporter.Drain(Duration.ofSeconds(5)));
+        assertEquals(List.of("1 reported on worker", "2 closed on worker", "3 reported on worker"), sender.calls);
+        assertEquals(1, reporter.GetStats().Dropped());
+    }
+
+    @Test
+    public void blocksUntilQueueHasRoom() throws Exception {
+        var sender = new RecordingSender();
+        var reporter = reporter(ResponseReporter.OverflowPolicy.BLOCK, sender);
+        reporter.SubmitSerialized(7, 1, RESPONSE);
+        assertTrue(sender.busy.await(5, TimeUnit.SECONDS));
+        reporter.SubmitSerialized(7, 2, RESPONSE);
+
+        var submitter = Thread.ofPlatform().start(() -> reporter.SubmitSerialized(7, 3, RESPONSE));
+        submitter.join(200);
+        assertTrue(submitter.isAlive());
+
+        sender.release.countDown();
+        submitter.join(5000);
+        assertTrue(reporter.Drain(Duration.ofSeconds(5)));
+        assertEquals(List.of("1 reported on worker", "2 reported on worker", "3 reported on worker"), sender.calls);
+        assertEquals(0, reporter.GetStats().Dropped());
+    }
+
+    @Test
+    public void drainClosesWhatIsLeftAfterTimeout() throws Exception {
+        var sender = new RecordingSender();
+        var reporter = reporter(ResponseReporter.OverflowPolicy.DROP_NEWEST, sender);
+        reporter.SubmitSerialized(7, 1, RESPONSE);
+        assertTrue(sender.busy.await(5, TimeUnit.SECONDS));
+        reporter.SubmitSerialized(7, 2, RESPONSE);
+
+        assertFalse(reporter.Drain(Duration.ofMillis(100)));
+        assertEquals(List.of("2 closed on caller"), sender.calls);
+
+        // Once drained, reports run on the submitting thread
+        reporter.SubmitSerialized(7, 4, RESPONSE);
+        assertEquals(List.of("2 closed on caller", "4 reported on caller"), sender.calls);
+        sender.release.countDown();
+    }
+
+    @Test
+    public void samplesSerializedResponses() {
+        var sent = new CopyOnWriteArrayList<String>();
+        var reporter = new ResponseReporter(new ResponseSampler(0, true, null, false), 0, 1, ResponseReporter.OverflowPolicy.BLOCK, false, 0,
+            (instanceHandle, requestHandle, response) -> sent.add(new String(
+                response.NullTerminated().asSlice(0, response.Size()).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8)));
+        var withErrors = "{\"errors\":[{\"message\":\"failed\"}],\"data\":{\"a\":1}}";
+
+        reporter.SubmitSerialized(7, 1, "op", "{\"data\":{\"a\":1},\"extensions\":{\"cost\":2}}".getBytes(StandardCharsets.UTF_8));
+        reporter.SubmitSerialized(7, 2, "op", withErrors.getBytes(StandardCharsets.UTF_8));
+        reporter.SubmitSerialized(7, 3, RESPONSE);
+
+        assertEquals(List.of("{\"extensions\":{\"cost\":2}}", withErrors, "{\"data\":{}}"), sent);
+        assertEquals(1, reporter.GetStats().Unsampled());
+    }
+
+    @Test
+    public void releasesDroppedResponseBeforeClosing() throws Exception {
+        var sender = new RecordingSender();
+        var reporter = reporter(ResponseReporter.OverflowPolicy.DROP_NEWEST, sender);
+        reporter.SubmitSerialized(7, 1, RESPONSE);
+        assertTrue(sender.busy.await(5, TimeUnit.SECONDS));
+        reporter.SubmitSerialized(7, 2, RESPONSE);
+
+        var result = ExecutionResult.newExecutionResult().data(new byte[1024 * 1024]).build();
+        var released = new WeakReference<>(result);
+        reporter.Submit(7, 3, null, result);
+        result = null;
+
+        // The close is still pending behind the busy worker, the response is not
+        for (int i = 0; i < 50 && released.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(released.get());
+        assertEquals(1, reporter.GetStats().Dropped());
+
+        sender.release.countDown();
+        reporter.Drain(Duration.ofSeconds(5));
+        assertTrue(sender.calls.contains("3 closed on worker"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import graphql.ExecutionResult;
+import graphql.GraphqlErrorBuilder;
+
+public class ResponseSamplerTest {
+    private static final ExecutionResult OK = ExecutionResult.newExecutionResult().data(Map.of()).build();
+    private static final ExecutionResult FAILED = ExecutionResult.newExecutionResult()
+        .addError(GraphqlErrorBuilder.newError().message("failed").build())
+        .build();
+
+    @Test
+    public void samplesAtRate() {
+        assertTrue(new ResponseSampler(1, false, null, false).IsSampled("Books", OK));
+        assertFalse(new ResponseSampler(0, false, null, false).IsSampled("Books", OK));
+
+        var sampler = new ResponseSampler(0.25, false, null, false);
+        var sampled = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (sampler.IsSampled("Books", OK)) {
+                sampled++;
+            }
+        }
+        assertTrue("sampled " + sampled, sampled > 2_000 && sampled < 3_000);
+    }
+
+    @Test
+    public void alwaysSamplesErrorsWhenEnabled() {
+        assertTrue(new ResponseSampler(0, true, null, false).IsSampled("Books", FAILED));
+        assertFalse(new ResponseSampler(0, true, null, false).IsSampled("Books", OK));
+        assertFalse(new ResponseSampler(0, false, null, false).IsSampled("Books", FAILED));
+    }
+
+    @Test
+    public void operationRatesOverrideDefault() {
+        var sampler = new ResponseSampler(0, false, Map.of("Books", 1.0, "Authors", 0.0), false);
+        assertTrue(sampler.IsSampled("Books", OK));
+        assertFalse(sampler.IsSampled("Authors", OK));
+        assertFalse(sampler.IsSampled("Other", OK));
+        assertFalse(sampler.IsSampled(null, OK));
+
+        var muted = new ResponseSampler(1, false, Map.of("Health", 0.0), false);
+        assertFalse(muted.IsSampled("Health", OK));
+        assertTrue(muted.IsSampled(null, OK));
+    }
+
+    @Test
+    public void disabledResponseDataSamplesNothing() {
+        var sampler = new ResponseSampler(1, true, Map.of("Books", 1.0), true);
+        assertFalse(sampler.IsSampled("Books", OK));
+        assertFalse(sampler.IsSampled("Books", FAILED));
+    }
+}
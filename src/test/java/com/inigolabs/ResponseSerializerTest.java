@@ -0,0 +1,96 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import graphql.ExecutionResult;
+import graphql.GraphqlErrorBuilder;
+
+@SuppressWarnings("preview")
+public class ResponseSerializerTest {
+    private static String read(NativeBuffer buffer) {
+        var bytes = buffer.NullTerminated().asSlice(0, buffer.Size()).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void matchesSpecificationMap() throws Exception {
+        var books = new java.util.ArrayList<Object>();
+        for (int i = 0; i < 2000; i++) {
+            var book = new LinkedHashMap<String, Object>();
+            book.put("id", "book-" + i);
+            book.put("pageCount", i);
+            book.put("rating", i / 3.0);
+            book.put("author", i % 2 == 0 ? Map.of("name", "\"Dingus\"") : null);
+            books.add(book);
+        }
+
+        var result = ExecutionResult.newExecutionResult()
+            .data(Map.of("books", books))
+            .addError(GraphqlErrorBuilder.newError().message("partial failure").path(List.of("books", 1)).build())
+            .extensions(Map.of("cost", 42))
+            .build();
+
+        try (var buffer = ResponseSerializer.Serialize(result)) {
+            var mapper = new ObjectMapper();
+            assertEquals(mapper.readTree(mapper.writeValueAsBytes(result.toSpecification())), mapper.readTree(read(buffer)));
+        }
+    }
+
+    @Test
+    public void stopsAtSizeLimit() throws Exception {
+        var result = ExecutionResult.newExecutionResult().data(Map.of("text", "x".repeat(100_000))).build();
+
+        // {"data":{"text":"x..."}} is 100,020 bytes
+        var oversized = ResponseSerializer.Serialize(result, 50_000);
+        assertNull(oversized.Buffer());
+        assertTrue(oversized.Truncated());
+        assertTrue(oversized.Bytes() > 50_000 && oversized.Bytes() < 100_020);
+        assertEquals(1, oversized.DataFields());
+        assertNull(ResponseSerializer.Serialize(result, 100_019).Buffer());
+        var measured = ResponseSerializer.Serialize(result, 100_020);
+        try (var buffer = measured.Buffer()) {
+            assertEquals(100_020, buffer.Size());
+            assertFalse(measured.Truncated());
+        }
+    }
+
+    @Test
+    public void measuresWholeResponse() throws Exception {
+        var result = ExecutionResult.newExecutionResult().data(Map.of("text", "x".repeat(100_000))).build();
+
+        var measured = ResponseSerializer.Measure(result);
+        assertNull(measured.Buffer());
+        assertFalse(measured.Truncated());
+        assertEquals(100_020, measured.Bytes());
+        assertEquals(1, measured.DataFields());
+    }
+
+    @Test
+    public void envelopeKeepsErrorsAndExtensions() throws Exception {
+        var result = ExecutionResult.newExecutionResult()
+            .data(Map.of("books", List.of()))
+            .addError(GraphqlErrorBuilder.newError().message("partial failure").build())
+            .extensions(Map.of("cost", 42))
+            .build();
+
+        try (var buffer = ResponseSerializer.SerializeEnvelope(result)) {
+            var mapper = new ObjectMapper();
+            var expected = new LinkedHashMap<String, Object>(result.toSpecification());
+            expected.remove("data");
+            assertEquals(mapper.readTree(mapper.writeValueAsBytes(expected)), mapper.readTree(read(buffer)));
+        }
+    }
+}
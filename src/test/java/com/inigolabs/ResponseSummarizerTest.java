@@ -0,0 +1,67 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import graphql.ExecutionResult;
+import graphql.GraphqlErrorBuilder;
+
+@SuppressWarnings("preview")
+public class ResponseSummarizerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static String read(NativeBuffer buffer) {
+        try (buffer) {
+            var bytes = buffer.NullTerminated().asSlice(0, buffer.Size()).toArray(ValueLayout.JAVA_BYTE);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void keepsErrorsAndExtensionsOfSerializedResponse() throws Exception {
+        var response = "{\"data\":{\"books\":[{\"id\":1,\"author\":{\"name\":\"a\"}},{\"id\":2,\"author\":null}]},"
+            + "\"errors\":[{\"message\":\"partial\",\"path\":[\"books\",1,\"author\"]}],"
+            + "\"extensions\":{\"cost\":42,\"responseSummary\":{\"bytes\":1}}}";
+        var bytes = response.getBytes(StandardCharsets.UTF_8);
+
+        var summary = MAPPER.readTree(read(ResponseSummarizer.Summarize(bytes)));
+
+        assertEquals(MAPPER.readTree("{\"errors\":[{\"message\":\"partial\",\"path\":[\"books\",1,\"author\"]}],"
+            + "\"extensions\":{\"cost\":42,\"responseSummary\":{\"bytes\":" + bytes.length + ",\"dataFields\":6}}}"), summary);
+    }
+
+    @Test
+    public void collectsErrorsOfIncrementalPayloads() throws Exception {
+        var batch = "{\"incremental\":[{\"data\":{\"a\":1}},{\"items\":[{\"b\":2}],\"errors\":[{\"message\":\"late\"}]}],\"hasNext\":true}";
+        var bytes = batch.getBytes(StandardCharsets.UTF_8);
+
+        var summary = MAPPER.readTree(read(ResponseSummarizer.Summarize(bytes)));
+
+        assertEquals(MAPPER.readTree("{\"errors\":[{\"message\":\"late\"}],"
+            + "\"extensions\":{\"responseSummary\":{\"bytes\":" + bytes.length + ",\"dataFields\":2}},\"hasNext\":true}"), summary);
+    }
+
+    @Test
+    public void summarizesExecutionResultLikeItsSerializedForm() throws Exception {
+        var result = ExecutionResult.newExecutionResult()
+            .data(Map.of("books", List.of(Map.of("id", 1, "title", "x".repeat(1000)), Map.of("id", 2))))
+            .addError(GraphqlErrorBuilder.newError().message("partial").build())
+            .extensions(Map.of("cost", 42))
+            .build();
+
+        byte[] serialized;
+        try (var buffer = ResponseSerializer.Serialize(result)) {
+            serialized = read(buffer).getBytes(StandardCharsets.UTF_8);
+        }
+
+        assertEquals(MAPPER.readTree(read(ResponseSummarizer.Summarize(serialized))), MAPPER.readTree(read(ResponseSummarizer.Summarize(result))));
+    }
+}
@@ -0,0 +1,100 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemaReloaderTest {
+    private static final String SCHEMA = "type Query { books: [String] }";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> pushed = new CopyOnWriteArrayList<>();
+
+    private void push(byte[] schema) {
+        pushed.add(new String(schema, StandardCharsets.UTF_8));
+    }
+
+    private Path write(String name, String schema) throws IOException {
+        return Files.writeString(folder.getRoot().toPath().resolve(name), schema);
+    }
+
+    @Test
+    public void startKeepsMatchingSchema() throws Exception {
+        var file = write("schema.graphql", SCHEMA);
+        try (var reloader = new SchemaReloader(file, SCHEMA, this::push, Duration.ofMillis(50))) {
+            reloader.Start();
+            assertEquals(List.of(), pushed);
+            assertEquals(1, reloader.GetStats().Unchanged());
+        }
+    }
+
+    @Test
+    public void startPushesSchemaThatDiffers() throws Exception {
+        var file = write("schema.graphql", SCHEMA);
+        try (var reloader = new SchemaReloader(file, "type Query { authors: [String] }", this::push, Duration.ofMillis(50))) {
+            reloader.Start();
+            assertEquals(List.of(SCHEMA), pushed);
+            assertEquals(1, reloader.GetStats().Reloads());
+        }
+    }
+
+    @Test
+    public void concatenatesDirectoryInNameOrder() throws Exception {
+        write("b.graphqls", "type Book { title: String }");
+        write("a.graphql", SCHEMA);
+        write("notes.txt", "ignored");
+        try (var reloader = new SchemaReloader(folder.getRoot().toPath(), null, this::push, Duration.ofMillis(50))) {
+            assertTrue(reloader.Reload());
+            assertFalse(reloader.Reload());
+            assertEquals(List.of(SCHEMA + "\ntype Book { title: String }"), pushed);
+        }
+    }
+
+    @Test
+    public void debouncesBurstsOfChanges() throws Exception {
+        var file = write("schema.graphql", SCHEMA);
+        try (var reloader = new SchemaReloader(file, SCHEMA, this::push, Duration.ofMillis(300))) {
+            reloader.Start();
+            for (int i = 1; i <= 3; i++) {
+                Files.writeString(file, SCHEMA + " # " + i);
+                Thread.sleep(20);
+            }
+
+            var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (pushed.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(500);
+            assertEquals(List.of(SCHEMA + " # 3"), pushed);
+        }
+    }
+
+    @Test
+    public void retriesRejectedSchema() throws Exception {
+        var file = write("schema.graphql", SCHEMA);
+        var attempts = new CopyOnWriteArrayList<String>();
+        try (var reloader = new SchemaReloader(file, null, schema -> {
+            attempts.add(new String(schema, StandardCharsets.UTF_8));
+            throw new IOException("invalid schema");
+        }, Duration.ofMillis(50))) {
+            assertFalse(reloader.Reload());
+            assertFalse(reloader.Reload());
+            assertEquals(List.of(SCHEMA, SCHEMA), attempts);
+            assertEquals(2, reloader.GetStats().Failures());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.inigolabs.Sidecar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.inigolabs.FakeNatives;
+import com.inigolabs.Inigo;
+import com.sun.net.httpserver.HttpServer;
+
+public class InigoSidecarTest {
+    private static final String QUERY = "{\"query\":\"{ hello }\"}";
+    private static final String DATA = "{\"data\":{\"hello\":\"world\"}}";
+
+    private final FakeNatives natives = new FakeNatives();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private volatile int upstreamStatus = 200;
+    private volatile String upstreamBody = DATA;
+    private HttpServer upstream;
+    private InigoSidecar sidecar;
+
+    @Before
+    public void start() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        upstream.createContext("/", exchange -> {
+            try (exchange) {
+                upstreamCalls.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                var body = upstreamBody.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/graphql-response+json");
+                exchange.sendResponseHeaders(upstreamStatus, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        });
+        upstream.start();
+
+        var config = new InigoSidecar.Config();
+        config.Port = 0;
+        config.ShutdownTimeoutMillis = 0;
+        config.Upstream = "http://localhost:" + upstream.getAddress().getPort();
+        sidecar = new InigoSidecar(config, FakeNatives.Engine(new Inigo.Config(), natives));
+        sidecar.Start();
+    }
+
+    @After
+    public void stop() {
+        sidecar.close();
+        upstream.stop(0);
+        client.close();
+    }
+
+    private HttpResponse<String> post(String body) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + sidecar.Port() + "/graphql"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void forwardsAndReportsResponse() throws Exception {
+        var response = post(QUERY);
+        sidecar.close();
+
+        assertEquals(200, response.statusCode());
+        assertEquals(DATA, response.body());
+        assertEquals(List.of(QUERY), natives.Requests);
+        assertEquals(List.of("100:" + DATA), natives.Responses);
+    }
+
+    @Test
+    public void answersBlockedRequestWithInigoOutput() throws Exception {
+        natives.BlockedOutput = "{\"errors\":[{\"message\":\"too many requests\"}],\"data\":null,\"extensions\":{\"inigo\":{\"status\":429}}}";
+
+        var response = post(QUERY);
+        sidecar.close();
+
+        assertEquals(429, response.statusCode());
+        assertEquals(natives.BlockedOutput, response.body());
+        assertEquals(0, upstreamCalls.get());
+    }
+
+    @Test
+    public void reportsGraphQLErrorsOfFailedUpstream() throws Exception {
+        upstreamStatus = 400;
+        upstreamBody = "{\"errors\":[{\"message\":\"Cannot query field\"}]}";
+
+        var response = post(QUERY);
+        sidecar.close();
+
+        assertEquals(400, response.statusCode());
+        assertEquals(List.of("100:" + upstreamBody), natives.Responses);
+    }
+
+    @Test
+    public void forwardsWhenInigoFails() throws Exception {
+        natives.Failure = new IllegalStateException("native failure");
+
+        var response = post(QUERY);
+        sidecar.close();
+
+        assertEquals(200, response.statusCode());
+        assertEquals(DATA, response.body());
+        assertEquals(1, sidecar.GetStats().InigoFailures());
+        assertTrue(natives.Responses.isEmpty());
+    }
+}
@@ -0,0 +1,149 @@
+package com.inigolabs.Spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.springframework.graphql.server.WebGraphQlInterceptor.Chain;
+import org.springframework.graphql.server.WebGraphQlRequest;
+import org.springframework.graphql.server.WebGraphQlResponse;
+import org.springframework.graphql.server.support.SerializableGraphQlRequest;
+import org.springframework.graphql.support.DefaultExecutionGraphQlResponse;
+import org.springframework.http.HttpHeaders;
+
+import com.inigolabs.FakeNatives;
+import com.inigolabs.Inigo;
+import com.inigolabs.PersistedQueryCache;
+
+import graphql.ExecutionResult;
+import reactor.core.publisher.Mono;
+
+public class InigoMiddlewareTest {
+    private static final String QUERY = "{ hello }";
+
+    private final FakeNatives natives = new FakeNatives();
+    private final InigoMiddleware middleware;
+
+    public InigoMiddlewareTest() {
+        var config = new Inigo.Config();
+        config.NativeCallMaxLimit = 4;
+        middleware = new InigoMiddleware(config, FakeNatives.Engine(config, natives), new PersistedQueryCache(10));
+    }
+
+    private static String hash(String query) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static WebGraphQlRequest request(String query, String hash) {
+        var body = new SerializableGraphQlRequest();
+        body.setQuery(query);
+        body.setExtensions(Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", hash)));
+        return new WebGraphQlRequest(URI.create("http://localhost/graphql"), new HttpHeaders(), null, null, Map.of(), body, "1", null);
+    }
+
+    private ExecutionResult execute(WebGraphQlRequest request) {
+        return middleware.intercept(request, req -> {
+            var result = ExecutionResult.newExecutionResult().data(Map.of("query", req.toExecutionInput().getQuery())).build();
+            return Mono.just(new WebGraphQlResponse(new DefaultExecutionGraphQlResponse(req.toExecutionInput(), result)));
+        }).block().getExecutionResult();
+    }
+
+    private void assertGuardIdle(long accepted) {
+        var guard = middleware.getNativeCallGuardStats();
+        assertEquals(0, guard.Inflight());
+        assertEquals(accepted, guard.Accepted());
+    }
+
+    @Test
+    public void rejectedPersistedQueriesNeverTakeGuardSlots() throws Exception {
+        var notFound = execute(request(null, hash(QUERY)));
+        assertEquals(PersistedQueryCache.NOT_FOUND, notFound.getErrors().get(0).getMessage());
+
+        var mismatch = execute(request("{ other }", hash(QUERY)));
+        assertEquals(PersistedQueryCache.HASH_MISMATCH, mismatch.getErrors().get(0).getMessage());
+
+        assertEquals(List.of(), natives.Requests);
+        assertGuardIdle(0);
+    }
+
+    @Test
+    public void resolvesRegisteredPersistedQuery() throws Exception {
+        assertEquals(Map.of("query", QUERY), execute(request(QUERY, hash(QUERY))).getData());
+        assertEquals(Map.of("query", QUERY), execute(request(null, hash(QUERY))).getData());
+
+        assertEquals(2, natives.Requests.size());
+        assertTrue(natives.Requests.get(1).contains(QUERY));
+        assertEquals(2, natives.Responses.size());
+        assertEquals(0, middleware.getInflightCount());
+        assertGuardIdle(2);
+    }
+
+    @Test
+    public void failedNativeCallReleasesGuardSlot() throws Exception {
+        natives.Failure = new IllegalStateException("native call failed");
+        try {
+            execute(request(QUERY, hash(QUERY)));
+        } catch (IllegalStateException e) {
+            assertEquals("native call failed", e.getMessage());
+        }
+        assertGuardIdle(1);
+        assertEquals(1, middleware.getNativeCallGuardStats().Failed());
+        assertNull(middleware.getFlushStats());
+    }
+
+    @Test
+    public void continuesOffRequestWorker() throws Exception {
+        var config = new Inigo.Config();
+        config.RequestProcessWorkers = 1;
+        var threaded = new InigoMiddleware(config, FakeNatives.Engine(config, natives), null);
+        var thread = new AtomicReference<String>();
+
+        threaded.intercept(request(QUERY, hash(QUERY)), req -> {
+            thread.set(Thread.currentThread().getName());
+            var result = ExecutionResult.newExecutionResult().data(Map.of()).build();
+            return Mono.just(new WebGraphQlResponse(new DefaultExecutionGraphQlResponse(req.toExecutionInput(), result)));
+        }).block();
+
+        assertEquals(1, natives.Requests.size());
+        assertFalse(thread.get(), thread.get().startsWith("inigo-request"));
+        threaded.shutdown(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void saturatedExecutorFailsOpen() throws Exception {
+        var config = new Inigo.Config();
+        config.RequestProcessWorkers = 1;
+        config.RequestProcessQueueSize = 1;
+        var threaded = new InigoMiddleware(config, FakeNatives.Engine(config, natives), null);
+        Chain chain = req -> {
+            var result = ExecutionResult.newExecutionResult().data(Map.of("ok", true)).build();
+            return Mono.just(new WebGraphQlResponse(new DefaultExecutionGraphQlResponse(req.toExecutionInput(), result)));
+        };
+        natives.Gate = new CountDownLatch(1);
+
+        // One request holds the worker, one waits in the queue, the third finds the executor full
+        var running = threaded.intercept(request(QUERY, hash(QUERY)), chain);
+        var queued = threaded.intercept(request(QUERY, hash(QUERY)), chain);
+        var rejected = threaded.intercept(request(QUERY, hash(QUERY)), chain).block();
+
+        assertEquals(Map.of("ok", true), rejected.getExecutionResult().getData());
+        assertEquals(1, threaded.getPassThroughCount());
+        natives.Gate.countDown();
+        running.block();
+        queued.block();
+        assertEquals(2, natives.Requests.size());
+        threaded.shutdown(Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,217 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import graphql.ExecutionResult;
+import graphql.GraphqlErrorBuilder;
+
+public class StreamReporterTest {
+    private record Batch(long requestHandle, String json) {}
+
+    private final List<Batch> batches = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextHandle = new AtomicLong(100);
+    private final RequestHandles handles = new RequestHandles(false, requestHandle -> {});
+
+    private StreamReporter reporter(int batchEvents, Duration batchDelay) {
+        var sampler = new ResponseSampler(1, true, Map.of(), false);
+        return new StreamReporter(sampler, (instanceHandle, requestHandle, batch) ->
+            batches.add(new Batch(requestHandle, new String(batch, StandardCharsets.UTF_8))), batchEvents, 1024 * 1024, batchDelay);
+    }
+
+    private static ExecutionResult event(int value) {
+        return ExecutionResult.newExecutionResult().data(Map.of("tick", value)).build();
+    }
+
+    @Test
+    public void coalescesEventsIntoBatches() {
+        var reporter = reporter(2, Duration.ZERO);
+        var handle = handles.Open(1, 2);
+        var stream = reporter.Open(handle, null, nextHandle::getAndIncrement);
+
+        for (var i = 0; i < 5; i++) {
+            stream.Add(event(i));
+        }
+        stream.Complete();
+        reporter.close();
+
+        assertEquals(List.of(
+            new Batch(2, "{\"incremental\":[{\"data\":{\"tick\":0}},{\"data\":{\"tick\":1}}],\"hasNext\":true}"),
+            new Batch(100, "{\"incremental\":[{\"data\":{\"tick\":2}},{\"data\":{\"tick\":3}}],\"hasNext\":true}"),
+            new Batch(101, "{\"incremental\":[{\"data\":{\"tick\":4}}],\"hasNext\":false}")
+        ), batches);
+        assertFalse(handle.Claim());
+        assertEquals(new StreamReporter.Stats(0, 1, 5, 3, 0, 0, 0), reporter.GetStats());
+    }
+
+    @Test
+    public void closesRequestOfEmptyStream() {
+        var reporter = reporter(10, Duration.ZERO);
+        var stream = reporter.Open(handles.Open(1, 2), null, nextHandle::getAndIncrement);
+
+        stream.Complete();
+        stream.Complete();
+        reporter.close();
+
+        assertEquals(List.of(new Batch(2, "{\"incremental\":[],\"hasNext\":false}")), batches);
+    }
+
+    @Test
+    public void flushesPartialBatchAfterDelay() throws InterruptedException {
+        var reporter = reporter(10, Duration.ofMillis(20));
+        var stream = reporter.Open(handles.Open(1, 2), null, nextHandle::getAndIncrement);
+
+        stream.Add(event(1));
+        for (var i = 0; i < 100 && batches.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of(new Batch(2, "{\"incremental\":[{\"data\":{\"tick\":1}}],\"hasNext\":true}")), batches);
+        reporter.close();
+    }
+
+    @Test
+    public void skipsBatchWithoutContinuation() {
+        var reporter = reporter(1, Duration.ZERO);
+        var stream = reporter.Open(handles.Open(1, 2), null, () -> 0);
+
+        stream.Add(event(1));
+        stream.Add(event(2));
+        stream.Complete();
+        reporter.close();
+
+        assertEquals(1, batches.size());
+        assertEquals(new StreamReporter.Stats(0, 1, 2, 1, 0, 1, 1), reporter.GetStats());
+    }
+
+    @Test
+    public void tapsPublisherWithoutAlteringIt() {
+        var reporter = reporter(10, Duration.ZERO);
+        var stream = reporter.Open(handles.Open(1, 2), null, nextHandle::getAndIncrement);
+        Publisher<ExecutionResult> source = subscriber -> subscriber.onSubscribe(new Subscription() {
+            private int emitted;
+
+            @Override
+            public void request(long n) {
+                for (var i = 0; i < n && emitted < 3; i++) {
+                    subscriber.onNext(event(emitted++));
+                }
+                if (emitted == 3) {
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+
+        var received = new CopyOnWriteArrayList<Object>();
+        var completed = new AtomicLong();
+        stream.Tap(source).subscribe(new Subscriber<ExecutionResult>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ExecutionResult item) {
+                received.add(item.getData());
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.incrementAndGet();
+            }
+        });
+
+        assertEquals(List.of(Map.of("tick", 0), Map.of("tick", 1), Map.of("tick", 2)), received);
+        assertEquals(1, completed.get());
+        reporter.close();
+        assertEquals(1, batches.size());
+        assertTrue(batches.get(0).json().endsWith("{\"data\":{\"tick\":2}}],\"hasNext\":false}"));
+    }
+
+    @Test
+    public void reportsEveryBatchOnOriginalRequest() {
+        var reporter = reporter(2, Duration.ofMillis(1));
+        var stream = reporter.Open(handles.Open(1, 2), null, null);
+
+        stream.Add(event(0));
+        stream.Add(ExecutionResult.newExecutionResult().addError(GraphqlErrorBuilder.newError().message("boom").build()).build());
+        stream.Add(event(2));
+        stream.Complete();
+        reporter.close();
+
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).requestHandle());
+        var json = batches.get(0).json();
+        assertTrue(json, json.startsWith("{\"incremental\":[{\"data\":{\"tick\":2}}],\"hasNext\":false,\"errors\":[{\"message\":\"boom\""));
+        assertTrue(json, json.contains("\"responseSummary\":{\"events\":2,\"bytes\":"));
+        assertTrue(json, json.endsWith(",\"errors\":1}}}"));
+        assertEquals(new StreamReporter.Stats(0, 1, 3, 1, 2, 0, 0), reporter.GetStats());
+    }
+
+    @Test
+    public void submitsOffEmittingThread() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var threads = new CopyOnWriteArrayList<String>();
+        var sampler = new ResponseSampler(1, true, Map.of(), false);
+        var reporter = new StreamReporter(sampler, (instanceHandle, requestHandle, batch) -> {
+            threads.add(Thread.currentThread().getName());
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 1, 1024 * 1024, Duration.ZERO);
+        var continued = new CopyOnWriteArrayList<String>();
+        var stream = reporter.Open(handles.Open(1, 2), null, () -> {
+            continued.add(Thread.currentThread().getName());
+            return nextHandle.getAndIncrement();
+        });
+
+        // A blocked sink holds up neither the emitting thread nor the stream lock
+        stream.Add(event(1));
+        stream.Add(event(2));
+        stream.Complete();
+        release.countDown();
+        reporter.close();
+
+        assertEquals(List.of("inigo-stream-flush", "inigo-stream-flush"), threads);
+        assertEquals(List.of("inigo-stream-flush"), continued);
+    }
+
+    @Test
+    public void forgetsAbandonedStreams() throws InterruptedException {
+        var disposed = new CopyOnWriteArrayList<Long>();
+        var tracked = new RequestHandles(false, disposed::add);
+        var reporter = reporter(10, Duration.ZERO);
+        reporter.Open(tracked.Open(1, 2), null, null).Add(event(1));
+
+        for (int i = 0; i < 50 && disposed.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(List.of(2L), disposed);
+        assertEquals(0, reporter.GetStats().Live());
+        reporter.close();
+    }
+}
@@ -0,0 +1,60 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+@SuppressWarnings("preview")
+public class StringInternerTest {
+    @Test
+    public void returnsCachedStringForSameBytes() {
+        var interner = new StringInterner(16, 64);
+        try (var arena = Arena.ofConfined()) {
+            var first = interner.Intern(segment(arena, "{\"status\":\"ok\"}"));
+            var second = interner.Intern(segment(arena, "{\"status\":\"ok\"}"));
+
+            assertEquals("{\"status\":\"ok\"}", first);
+            assertSame(first, second);
+            assertEquals(new StringInterner.Stats(1, 1, 0), interner.GetStats());
+        }
+    }
+
+    @Test
+    public void replacesCollidingEntries() {
+        var interner = new StringInterner(1, 64);
+        try (var arena = Arena.ofConfined()) {
+            var first = interner.Intern(segment(arena, "a"));
+            assertEquals("b", interner.Intern(segment(arena, "b")));
+            var again = interner.Intern(segment(arena, "a"));
+
+            assertEquals("a", again);
+            assertNotSame(first, again);
+            assertEquals(new StringInterner.Stats(0, 3, 0), interner.GetStats());
+        }
+    }
+
+    @Test
+    public void skipsLongValues() {
+        var interner = new StringInterner(16, 4);
+        try (var arena = Arena.ofConfined()) {
+            assertNull(interner.Intern(segment(arena, "too long")));
+            assertEquals("fits", interner.Intern(segment(arena, "fits")));
+            assertEquals(new StringInterner.Stats(0, 1, 1), interner.GetStats());
+        }
+    }
+
+    private static MemorySegment segment(Arena arena, String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        var segment = arena.allocate(bytes.length);
+        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+        return segment;
+    }
+}
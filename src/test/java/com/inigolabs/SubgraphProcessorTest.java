@@ -0,0 +1,175 @@
+package com.inigolabs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class SubgraphProcessorTest {
+    private static final byte[] RESPONSE = "{\"data\":{\"a\":1}}".getBytes(StandardCharsets.UTF_8);
+
+    // Records the calls of a fetch, in order, alongside the transport
+    private static final class RecordingNatives implements SubgraphProcessor.Natives {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final List<Long> gateways = new CopyOnWriteArrayList<>();
+        volatile String blockedOutput;
+        volatile RuntimeException failure;
+        volatile String rewritten = "";
+
+        @Override
+        public long Create(Inigo.Config config) {
+            calls.add("create:" + config.Name);
+            gateways.add(config.Gateway);
+            return 7;
+        }
+
+        @Override
+        public Foreign.ProcessRequestResult ProcessRequest(long instanceHandle, String subgraph, NativePayload headers, NativePayload input) {
+            if (failure != null) {
+                throw failure;
+            }
+            calls.add("request:" + subgraph);
+            if (blockedOutput != null) {
+                return new Foreign.ProcessRequestResult(0, blockedOutput, null, null, 403);
+            }
+            return new Foreign.ProcessRequestResult(42, null, null, null, 200);
+        }
+
+        @Override
+        public String ProcessResponse(long instanceHandle, long requestHandle, byte[] response) {
+            calls.add(requestHandle + ":" + (response != null ? new String(response, StandardCharsets.UTF_8) : "closed"));
+            return rewritten;
+        }
+    }
+
+    private static SubgraphProcessor processor(RecordingNatives natives, NativeCallGuard guard, RequestHandles handles) {
+        return new SubgraphProcessor(new Inigo.Config("token"), 1, natives, guard, handles);
+    }
+
+    private static SubgraphProcessor.Fetch fetch(RecordingNatives natives, SubgraphProcessor.Transport transport) {
+        return new SubgraphProcessor.Fetch("products", null, "{ a }", null, null, () -> {
+            natives.calls.add("send");
+            return transport.Send();
+        });
+    }
+
+    @Test
+    public void processesRequestAroundTransport() {
+        var natives = new RecordingNatives();
+        var handles = new RequestHandles(false, requestHandle -> {});
+        try (var processor = processor(natives, null, handles)) {
+            var result = processor.Process(fetch(natives, () -> RESPONSE));
+
+            assertEquals(List.of("create:products", "request:products", "send", "42:{\"data\":{\"a\":1}}"), natives.calls);
+            assertArrayEquals(RESPONSE, result.Response());
+            assertFalse(result.Blocked());
+            assertNull(result.Error());
+            assertEquals(0, handles.Live());
+            assertEquals(new SubgraphProcessor.Stats(1, 1, 0, 0, 0), processor.GetStats());
+        }
+    }
+
+    @Test
+    public void usesRewrittenResponse() {
+        var natives = new RecordingNatives();
+        natives.rewritten = "{\"data\":null}";
+        try (var processor = processor(natives, null, new RequestHandles(false, requestHandle -> {}))) {
+            var result = processor.Process(fetch(natives, () -> RESPONSE));
+
+            assertEquals("{\"data\":null}", new String(result.Response(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void blockedFetchSkipsTransport() {
+        var natives = new RecordingNatives();
+        natives.blockedOutput = "{\"errors\":[{\"message\":\"denied\"}]}";
+        try (var processor = processor(natives, null, new RequestHandles(false, requestHandle -> {}))) {
+            var result = processor.Process(fetch(natives, () -> RESPONSE));
+
+            assertEquals(List.of("create:products", "request:products"), natives.calls);
+            assertTrue(result.Blocked());
+            assertEquals(403, result.StatusCode());
+            assertEquals(natives.blockedOutput, new String(result.Response(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void failedProcessRequestPassesThrough() throws Exception {
+        var natives = new RecordingNatives();
+        natives.failure = new IllegalStateException("native failure");
+        try (var processor = processor(natives, null, new RequestHandles(false, requestHandle -> {}))) {
+            var result = processor.ProcessAsync(fetch(natives, () -> RESPONSE)).get();
+
+            assertEquals(List.of("create:products", "send"), natives.calls);
+            assertArrayEquals(RESPONSE, result.Response());
+            assertNull(result.Error());
+            assertEquals(new SubgraphProcessor.Stats(1, 1, 0, 1, 0), processor.GetStats());
+        }
+    }
+
+    @Test
+    public void createsSubgraphInstancePerGatewayInstance() {
+        var natives = new RecordingNatives();
+        var gateways = new InstancePool(new long[] {1, 2}, InstancePool.Striping.THREAD);
+        try (var processor = new SubgraphProcessor(new Inigo.Config("token"), gateways, natives, null, new RequestHandles(false, requestHandle -> {}))) {
+            processor.Process(fetch(natives, () -> RESPONSE));
+            processor.Process(fetch(natives, () -> RESPONSE));
+
+            assertEquals(List.of(1L, 2L), natives.gateways);
+            assertEquals(1, processor.GetStats().Subgraphs());
+        }
+    }
+
+    @Test
+    public void failedTransportClosesRequest() {
+        var natives = new RecordingNatives();
+        var handles = new RequestHandles(false, requestHandle -> {});
+        var failure = new IOException("connection refused");
+        try (var processor = processor(natives, null, handles)) {
+            var result = processor.Process(fetch(natives, () -> { throw failure; }));
+
+            assertEquals(List.of("create:products", "request:products", "send", "42:closed"), natives.calls);
+            assertSame(failure, result.Error());
+            assertEquals(0, handles.Live());
+        }
+    }
+
+    @Test
+    public void rejectedFetchFailsClosed() {
+        var natives = new RecordingNatives();
+        var guard = new NativeCallGuard(1, 1, Duration.ZERO, 0, Duration.ZERO, NativeCallGuard.Policy.FAIL_CLOSED);
+        assertTrue(guard.TryAcquire());
+        try (var processor = processor(natives, guard, new RequestHandles(false, requestHandle -> {}))) {
+            var result = processor.Process(fetch(natives, () -> RESPONSE));
+
+            assertEquals(List.of("create:products"), natives.calls);
+            assertTrue(result.Blocked());
+            assertEquals(503, result.StatusCode());
+        }
+    }
+
+    @Test
+    public void rejectedFetchFailsOpen() {
+        var natives = new RecordingNatives();
+        var guard = new NativeCallGuard(1, 1, Duration.ZERO, 0, Duration.ZERO, NativeCallGuard.Policy.FAIL_OPEN);
+        assertTrue(guard.TryAcquire());
+        try (var processor = processor(natives, guard, new RequestHandles(false, requestHandle -> {}))) {
+            var result = processor.Process(fetch(natives, () -> RESPONSE));
+
+            assertEquals(List.of("create:products", "send"), natives.calls);
+            assertArrayEquals(RESPONSE, result.Response());
+            assertEquals(1, processor.GetStats().PassedThrough());
+        }
+    }
+}